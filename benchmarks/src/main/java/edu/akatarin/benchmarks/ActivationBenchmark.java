@@ -0,0 +1,62 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.Activation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every activation function and its derivative, in place on one layer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ActivationBenchmark {
+
+    @Param({"ReLU", "Leaky_ReLU", "Sigmoid", "Softplus", "Identity", "BentIdentity", "Softmax"})
+    public String activationName;
+
+    @Param({"10", "800"})
+    public int size;
+
+    private Activation activation;
+    private double[] x;
+    private double[] gradient;
+    private double[] out;
+
+    @Setup
+    public void setUp() {
+        activation = Activation.valueOf(activationName);
+        x = Networks.randomVector(size, 6);
+        for (int i = 0; i < size; i++) {
+            x[i] = x[i] * 8 - 4;
+        }
+        gradient = Networks.randomVector(size, 7);
+        out = new double[size];
+    }
+
+    @Benchmark
+    public double[] apply() {
+        activation.apply(x, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] applyDerivative() {
+        activation.applyDerivative(x, gradient, out, 0, size);
+        return out;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.CostFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every cost function and its in-place derivative.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class CostFunctionBenchmark {
+
+    @Param({"MSE", "QUADRATIC", "HalfQuadratic", "CrossEntropy"})
+    public String costFunctionName;
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private CostFunction costFunction;
+    private double[] expected;
+    private double[] actual;
+    private double[] out;
+
+    @Setup
+    public void setUp() {
+        costFunction = CostFunction.valueOf(costFunctionName);
+        expected = new double[size];
+        expected[0] = 1;
+        actual = Networks.randomVector(size, 8);
+        out = new double[size];
+    }
+
+    @Benchmark
+    public double apply() {
+        return costFunction.apply(expected, actual);
+    }
+
+    @Benchmark
+    public double[] applyDerivative() {
+        costFunction.applyDerivative(expected, actual, out);
+        return out;
+    }
+}
@@ -0,0 +1,75 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.inference.InferenceNetwork;
+import edu.akatarin.inference.LowRank;
+import edu.akatarin.inference.Pruning;
+import edu.akatarin.inference.QuantizedLayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-sample prediction through an {@link InferenceNetwork} compiled from
+ * the classifier: double weights, int8 weights with per-row scales, the
+ * first layer pruned to 90% in 4x8 blocks and stored in block CSR, or the
+ * first layer factorized into two rank-32 matrices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class InferenceBenchmark {
+
+    @Param({"784"})
+    public int inputSize;
+
+    @Param({"800"})
+    public int hiddenSize;
+
+    @Param({"dense", "int8", "csr", "lowrank"})
+    public String layers;
+
+    private InferenceNetwork network;
+    private double[] input;
+
+    @Setup
+    public void setUp() {
+        NeuralNetwork source = Networks.classifier(inputSize, hiddenSize);
+        switch (layers) {
+            case "dense":
+                network = InferenceNetwork.dense(source);
+                break;
+            case "int8":
+                network = InferenceNetwork.quantized(source, QuantizedLayer.Granularity.ROW);
+                break;
+            case "csr":
+                Pruning.prune(source, 0, 0.9, 4, 8);
+                network = InferenceNetwork.sparse(source, 4, 8);
+                break;
+            case "lowrank":
+                network = LowRank.compress(source, 0, 32);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layers: " + layers);
+        }
+        input = Networks.samples(1, inputSize, 1)[0].getPixels();
+    }
+
+    @Benchmark
+    public int predictClass() {
+        return network.predictClass(input);
+    }
+}
@@ -0,0 +1,66 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.Activation;
+import edu.akatarin.Initializer;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Optimizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layer kernels: the matrix-vector product of the forward pass and the
+ * accumulate-and-apply weight update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class LayerBenchmark {
+
+    @Param({"784"})
+    public int size;
+
+    @Param({"10", "100", "800"})
+    public int nextSize;
+
+    private NeuronLayer layer;
+    private double[] netOutput;
+    private double[] weightGradient;
+    private double[] biasGradient;
+    private final Optimizer optimizer = new Optimizer.GradientDescent(1e-6);
+
+    @Setup
+    public void setUp() {
+        layer = new NeuronLayer(size, nextSize, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        layer.setNeurons(Networks.randomVector(size, 3));
+        netOutput = new double[nextSize];
+        weightGradient = Networks.randomVector(size * nextSize, 4);
+        biasGradient = Networks.randomVector(nextSize, 5);
+    }
+
+    @Benchmark
+    public double[] calculateNetOutput() {
+        layer.calculateNetOutput(netOutput);
+        return netOutput;
+    }
+
+    @Benchmark
+    public void update() {
+        layer.saveWeightGradient(weightGradient, 1);
+        layer.saveBiasGradient(biasGradient, 1);
+        layer.update(optimizer, 0.7);
+    }
+}
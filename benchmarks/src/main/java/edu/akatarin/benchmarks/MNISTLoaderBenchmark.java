@@ -0,0 +1,43 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.Number;
+import edu.akatarin.util.MNISTLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a data set through the decoded cache. The first call writes the
+ * cache, so the warmup covers the decoding and the measurement the mapped
+ * load. The path is relative to the working directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class MNISTLoaderBenchmark {
+
+    @Param({"data/t10k"})
+    public String filePrefix;
+
+    @Benchmark
+    public List<Number> importData() {
+        List<Number> numbers = MNISTLoader.importData(filePrefix);
+        if (numbers == null) {
+            throw new IllegalStateException("Can't load " + filePrefix);
+        }
+        return numbers;
+    }
+}
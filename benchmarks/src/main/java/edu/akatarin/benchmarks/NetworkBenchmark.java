@@ -0,0 +1,64 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.Number;
+import edu.akatarin.PredictionWorkspace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-sample paths: forward pass, per-sample backpropagation and the
+ * thread-safe prediction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class NetworkBenchmark {
+
+    @Param({"784"})
+    public int inputSize;
+
+    @Param({"100", "800"})
+    public int hiddenSize;
+
+    private NeuralNetwork network;
+    private Number sample;
+    private PredictionWorkspace workspace;
+
+    @Setup
+    public void setUp() {
+        network = Networks.classifier(inputSize, hiddenSize);
+        sample = Networks.samples(1, inputSize, 1)[0];
+        workspace = network.newPredictionWorkspace();
+    }
+
+    @Benchmark
+    public void feedForward() {
+        network.feedForward(sample);
+    }
+
+    @Benchmark
+    public void backpropagation() {
+        network.feedForward(sample);
+        network.backpropagation(sample.getIdealOut());
+    }
+
+    @Benchmark
+    public double[] predict() {
+        return network.predict(sample.getPixels(), workspace);
+    }
+}
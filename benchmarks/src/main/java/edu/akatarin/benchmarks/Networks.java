@@ -0,0 +1,85 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.Activation;
+import edu.akatarin.CostFunction;
+import edu.akatarin.Initializer;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuralNetworkBuilder;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.Optimizer;
+import edu.akatarin.Precision;
+
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class Networks {
+
+    static final int OUTPUT_SIZE = 10;
+
+    private Networks() {
+    }
+
+    /**
+     * Builds an MNIST-style classifier: sigmoid hidden layer, softmax output
+     * and cross-entropy cost.
+     */
+    static NeuralNetwork classifier(int inputSize, int hiddenSize) {
+        return classifier(inputSize, hiddenSize, Precision.DOUBLE);
+    }
+
+    /**
+     * Builds the same classifier with the given precision.
+     */
+    static NeuralNetwork classifier(int inputSize, int hiddenSize, Precision precision) {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(inputSize, hiddenSize, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .addHiddenLayer(new NeuronLayer(hiddenSize, OUTPUT_SIZE, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(OUTPUT_SIZE, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .withPrecision(precision)
+                .build();
+        network.setOptimizer(new Optimizer.GradientDescent(0.01));
+        network.setMomentum(0.7);
+        return network;
+    }
+
+    /**
+     * Builds a wide ReLU classifier with two hidden layers of hiddenSize
+     * units, softmax output and cross-entropy cost. About half of the ReLU
+     * units are inactive for a given sample.
+     */
+    static NeuralNetwork reluClassifier(int inputSize, int hiddenSize) {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(inputSize, hiddenSize, Activation.ReLU, Initializer.HE_NORMAL))
+                .addHiddenLayer(new NeuronLayer(hiddenSize, hiddenSize, Activation.ReLU, Initializer.HE_NORMAL))
+                .addHiddenLayer(new NeuronLayer(hiddenSize, OUTPUT_SIZE, Activation.ReLU, Initializer.HE_NORMAL))
+                .withOutputLayer(new NeuronLayer(OUTPUT_SIZE, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .build();
+        network.setOptimizer(new Optimizer.GradientDescent(0.01));
+        return network;
+    }
+
+    /**
+     * Random samples with MNIST-like sparsity: about 80% of the pixels are 0.
+     */
+    static Number[] samples(int count, int inputSize, long seed) {
+        Random random = new Random(seed);
+        Number[] samples = new Number[count];
+        for (int i = 0; i < count; i++) {
+            double[] pixels = new double[inputSize];
+            for (int j = 0; j < inputSize; j++) {
+                pixels[j] = random.nextDouble() < 0.8 ? 0 : random.nextDouble();
+            }
+            samples[i] = new Number(pixels, i % OUTPUT_SIZE);
+        }
+        return samples;
+    }
+
+    static double[] randomVector(int size, long seed) {
+        return new Random(seed).doubles(size).toArray();
+    }
+}
@@ -0,0 +1,66 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.Number;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training step of a wide ReLU network with the activation-sparse backward
+ * pass (errors and weight gradients skip inactive units) and, in a separate
+ * fork, with the dense backward pass. Forward pass and weight update are the
+ * same in both, so the difference is the backward time saved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ReluBackwardBenchmark {
+
+    @Param({"784"})
+    public int inputSize;
+
+    @Param({"256", "1024"})
+    public int hiddenSize;
+
+    @Param({"1", "32"})
+    public int batchSize;
+
+    private NeuralNetwork network;
+    private Number[] samples;
+    private double[][] expected;
+
+    @Setup
+    public void setUp() {
+        network = Networks.reluClassifier(inputSize, hiddenSize);
+        samples = Networks.samples(batchSize, inputSize, 3);
+        expected = new double[batchSize][];
+        for (int i = 0; i < batchSize; i++) {
+            expected[i] = samples[i].getIdealOut();
+        }
+    }
+
+    @Benchmark
+    public double sparseBackward() {
+        return network.trainBatch(samples, expected);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Dedu.akatarin.sparseRelu=false"})
+    public double denseBackward() {
+        return network.trainBatch(samples, expected);
+    }
+}
@@ -0,0 +1,63 @@
+package edu.akatarin.benchmarks;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.Number;
+import edu.akatarin.Precision;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One mini-batch step: forward and backward pass of the whole batch and the
+ * weight update, in the calling thread. With FLOAT precision the batch is
+ * computed in single precision end to end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class TrainBatchBenchmark {
+
+    @Param({"784"})
+    public int inputSize;
+
+    @Param({"100", "800"})
+    public int hiddenSize;
+
+    @Param({"1", "32", "256"})
+    public int batchSize;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public Precision precision;
+
+    private NeuralNetwork network;
+    private Number[] samples;
+    private double[][] expected;
+
+    @Setup
+    public void setUp() {
+        network = Networks.classifier(inputSize, hiddenSize, precision);
+        samples = Networks.samples(batchSize, inputSize, 2);
+        expected = new double[batchSize][];
+        for (int i = 0; i < batchSize; i++) {
+            expected[i] = samples[i].getIdealOut();
+        }
+    }
+
+    @Benchmark
+    public double trainBatch() {
+        return network.trainBatch(samples, expected);
+    }
+}
@@ -0,0 +1,175 @@
+package edu.akatarin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NeuralNetworkTest {
+
+    private static NeuralNetwork network(Activation hidden) {
+        return network(hidden, Precision.DOUBLE);
+    }
+
+    private static NeuralNetwork network(Activation hidden, Precision precision) {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(20, 16, hidden, Initializer.XAVIER_NORMAL).withSparseInputs())
+                .addHiddenLayer(new NeuronLayer(16, 4, hidden, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(4, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .withPrecision(precision)
+                .build();
+        network.setOptimizer(new Optimizer.GradientDescent(0.1));
+        return network;
+    }
+
+    private static Number[] samples(int count, long seed) {
+        Random random = new Random(seed);
+        Number[] samples = new Number[count];
+        for (int i = 0; i < count; i++) {
+            double[] pixels = new double[20];
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = random.nextDouble() < 0.6 ? 0 : random.nextDouble();
+            }
+            samples[i] = new Number(pixels, i % 4);
+        }
+        return samples;
+    }
+
+    private static double[][] expected(Number[] samples) {
+        double[][] expected = new double[samples.length][4];
+        for (int i = 0; i < samples.length; i++) {
+            expected[i][samples[i].getValue()] = 1;
+        }
+        return expected;
+    }
+
+    //копирует веса from в to, веса from при этом округляются до float, чтобы сети начинали с одних и тех же весов
+    private static void copyRoundedWeights(NeuralNetwork from, NeuralNetwork to) {
+        for (int k = 0; k < from.getLayers().length - 1; k++) {
+            double[] weights = from.getLayers()[k].getWeights();
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (float) weights[i];
+            }
+            from.getLayers()[k].setWeights(weights);
+            to.getLayers()[k].setWeights(weights.clone());
+        }
+    }
+
+    //пакет сети одинарной точности считается целиком во float и идет вслед за double-сетью с теми же весами
+    @Test
+    void floatBatchTrainingFollowsDouble() {
+        for (Activation hidden : new Activation[]{Activation.Sigmoid, Activation.ReLU}) {
+            NeuralNetwork reference = network(hidden);
+            NeuralNetwork network = network(hidden, Precision.FLOAT);
+            copyRoundedWeights(reference, network);
+            for (int batch = 0; batch < 3; batch++) {
+                Number[] samples = samples(50, batch);
+                double referenceCost = reference.trainBatch(samples, expected(samples));
+                assertEquals(referenceCost, network.trainBatch(samples, expected(samples)), 1e-4 * referenceCost);
+            }
+            for (int k = 0; k < 2; k++) {
+                assertArrayEquals(reference.getLayers()[k].getWeights(), network.getLayers()[k].getWeights(), 1e-5,
+                        hidden + ", layer " + k);
+            }
+        }
+    }
+
+    //параллельный пакет одинарной точности складывает float-градиенты частей и учится так же, как последовательный
+    @Test
+    void floatParallelTrainingFollowsSequential() {
+        NeuralNetwork sequential = network(Activation.ReLU, Precision.FLOAT);
+        NeuralNetwork parallel = network(Activation.ReLU, Precision.FLOAT);
+        for (int k = 0; k < 2; k++) {
+            parallel.getLayers()[k].setWeights(sequential.getLayers()[k].getFloatWeights().clone());
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            parallel.setTrainingPool(pool);
+            for (int batch = 0; batch < 3; batch++) {
+                Number[] samples = samples(100, batch);
+                double expectedCost = sequential.trainBatch(samples, expected(samples));
+                assertEquals(expectedCost, parallel.trainBatch(samples, expected(samples)), 1e-5 * expectedCost);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (int k = 0; k < 2; k++) {
+            assertArrayEquals(sequential.getLayers()[k].getWeights(), parallel.getLayers()[k].getWeights(), 1e-5,
+                    "layer " + k);
+            assertArrayEquals(sequential.getLayers()[k].getBiases(), parallel.getLayers()[k].getBiases(), 1e-5,
+                    "biases of layer " + k);
+        }
+    }
+
+    //ошибки ReLU-слоя, посчитанные только для активных нейронов, совпадают с полными после обнуления
+    //ошибок неактивных: те же блоки и тот же порядок сложения
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void maskedErrorsMatchDenseErrors(Precision precision) {
+        NeuronLayer layer = new NeuronLayer(37, 29, Activation.ReLU, Initializer.XAVIER_NORMAL);
+        layer.setPrecision(precision);
+        Random random = new Random(3);
+        int batch = 13;
+        double[] nextDeltas = random.doubles(batch * 29, -1, 1).toArray();
+        double[] values = random.doubles(batch * 37, -1, 1).map(v -> Math.max(0, v)).toArray();
+        double[] expected = new double[batch * 37];
+        layer.calculateErrors(nextDeltas, expected, batch);
+        for (int i = 0; i < expected.length; i++) {
+            if (values[i] == 0) {
+                expected[i] = 0;
+            }
+        }
+        double[] errors = random.doubles(batch * 37).toArray();
+        layer.calculateErrors(nextDeltas, values, errors, batch);
+        assertArrayEquals(expected, errors, 0.0);
+    }
+
+    //сеть с разреженным обратным проходом ReLU учится так же, как с обычным. Градиенты весов
+    //складываются в другом порядке (по ненулевым входам), поэтому веса совпадают с точностью до округления
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void sparseReluTrainsLikeDenseRelu(Precision precision) {
+        NeuralNetwork sparse = network(Activation.ReLU, precision);
+        NeuralNetwork dense = network(Activation.ReLU.withDenseBackward(), precision);
+        for (int k = 0; k < 2; k++) {
+            dense.getLayers()[k].setWeights(sparse.getLayers()[k].getWeights().clone());
+        }
+        double tolerance = precision == Precision.FLOAT ? 1e-6 : 1e-12;
+        for (int batch = 0; batch < 5; batch++) {
+            Number[] samples = samples(40, batch);
+            double expectedCost = dense.trainBatch(samples, expected(samples));
+            assertEquals(expectedCost, sparse.trainBatch(samples, expected(samples)), tolerance * expectedCost);
+        }
+        for (int k = 0; k < 2; k++) {
+            assertArrayEquals(dense.getLayers()[k].getWeights(), sparse.getLayers()[k].getWeights(), tolerance,
+                    "layer " + k);
+            assertArrayEquals(dense.getLayers()[k].getBiases(), sparse.getLayers()[k].getBiases(), tolerance,
+                    "biases of layer " + k);
+        }
+    }
+
+    @Test
+    void hogwildRejectsNonPositiveThreads() {
+        NeuralNetwork network = network(Activation.Sigmoid);
+        Number[] samples = samples(3, 1);
+        assertThrows(IllegalArgumentException.class, () -> network.trainHogwild(samples, expected(samples), 0));
+        assertThrows(IllegalArgumentException.class, () -> network.trainHogwild(samples, expected(samples), -2));
+    }
+
+    @Test
+    void hogwildUsesAtMostOneThreadPerSample() {
+        NeuralNetwork network = network(Activation.Sigmoid);
+        Number[] samples = samples(3, 1);
+        double cost = network.trainHogwild(samples, expected(samples), 16);
+        assertTrue(cost > 0 && Double.isFinite(cost), "cost " + cost);
+        assertEquals(0, network.trainHogwild(new Number[0], new double[0][], 4));
+    }
+}
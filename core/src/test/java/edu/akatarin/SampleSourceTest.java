@@ -0,0 +1,94 @@
+package edu.akatarin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+//пакеты и оценка по набору, который читается по примеру (как MNISTDataset), совпадают со списком в памяти
+class SampleSourceTest {
+    private static final int PIXELS = 12;
+
+    private final List<Number> samples = new ArrayList<>();
+    //тот же набор компактно, байтами, и без доступа к Number
+    private final SampleSource source;
+
+    SampleSourceTest() {
+        Random random = new Random(1);
+        byte[] data = new byte[103 * PIXELS];
+        random.nextBytes(data);
+        int[] labels = new int[103];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = random.nextInt(10);
+            samples.add(new Number(data, i * PIXELS, PIXELS, labels[i]));
+        }
+        source = new SampleSource() {
+            @Override
+            public int size() {
+                return labels.length;
+            }
+
+            @Override
+            public int getPixelCount() {
+                return PIXELS;
+            }
+
+            @Override
+            public int getClassCount() {
+                return 10;
+            }
+
+            @Override
+            public int getLabel(int index) {
+                return labels[index];
+            }
+
+            @Override
+            public void getPixels(int index, double[] out, int offset) {
+                for (int j = 0; j < PIXELS; j++) {
+                    out[offset + j] = Number.pixelValue(data[index * PIXELS + j]);
+                }
+            }
+        };
+    }
+
+    @Test
+    void pipelineReadsSourceLikeList() {
+        try (BatchPipeline fromList = new BatchPipeline(samples, 10, 2, 1).withRandom(new Random(5));
+             BatchPipeline fromSource = new BatchPipeline(source, 10, 2, 1).withRandom(new Random(5))) {
+            assertEquals(fromList.getBatchCount(), fromSource.getBatchCount());
+            Batch expected;
+            while ((expected = fromList.next()) != null) {
+                Batch actual = fromSource.next();
+                assertEquals(expected.getEpoch(), actual.getEpoch());
+                assertEquals(expected.getIndex(), actual.getIndex());
+                assertArrayEquals(expected.getInputs(), actual.getInputs());
+                for (int n = 0; n < expected.size(); n++) {
+                    assertEquals(expected.getLabel(n), actual.getLabel(n));
+                    assertArrayEquals(expected.getTargets()[n], actual.getTargets()[n]);
+                }
+            }
+            assertNull(fromSource.next());
+        }
+    }
+
+    @Test
+    void evaluatorReadsSourceLikeList() {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(PIXELS, 8, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .addHiddenLayer(new NeuronLayer(8, 10, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(10, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .build();
+        Evaluation expected = Evaluator.evaluate(network, samples);
+        Evaluation actual = Evaluator.evaluate(network, source);
+        assertEquals(expected.getSampleCount(), actual.getSampleCount());
+        assertEquals(expected.getMeanLoss(), actual.getMeanLoss());
+        assertArrayEquals(expected.getConfusionMatrix(), actual.getConfusionMatrix());
+    }
+}
@@ -0,0 +1,115 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.Activation;
+import edu.akatarin.CostFunction;
+import edu.akatarin.Initializer;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuralNetworkBuilder;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.Optimizer;
+import edu.akatarin.Precision;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//блочный CSR против обычного слоя на тех же обрезанных весах и сохранение нулей обрезки при обучении
+class CsrLayerTest {
+
+    private final Random random = new Random(1);
+
+    private NeuronLayer layer(int size, int nextSize) {
+        NeuronLayer layer = new NeuronLayer(size, nextSize, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        double[] biases = layer.getBiases();
+        for (int j = 0; j < nextSize; j++) {
+            biases[j] = random.nextDouble() - 0.5;
+        }
+        return layer;
+    }
+
+    //входы с нулями, как пиксели MNIST
+    private double[] input(int size) {
+        double[] x = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = random.nextDouble() < 0.5 ? 0 : random.nextDouble();
+        }
+        return x;
+    }
+
+    //блок обрезки и блок CSR: 1x1, 4x8, блоки, на которые 784 x 800 не делится, и CSR с другим блоком
+    @ParameterizedTest
+    @CsvSource({"1, 1, 1, 1", "4, 8, 4, 8", "3, 7, 3, 7", "5, 13, 5, 13", "4, 8, 3, 7", "1, 1, 4, 16"})
+    void csrMatchesDenseOnPrunedWeights(int pruneRows, int pruneColumns, int blockRows, int blockColumns) {
+        NeuronLayer source = layer(784, 800);
+        source.prune(0.9, pruneRows, pruneColumns);
+        DenseLayer dense = new DenseLayer(source);
+        CsrLayer csr = new CsrLayer(source, blockRows, blockColumns);
+        for (int n = 0; n < 3; n++) {
+            double[] x = input(784);
+            double[] expected = new double[800];
+            double[] actual = new double[800];
+            dense.apply(x, expected);
+            csr.apply(x, actual);
+            assertArrayEquals(expected, actual, 1e-12);
+        }
+    }
+
+    //крайние блоки неполные и по строкам, и по столбцам
+    @ParameterizedTest
+    @CsvSource({"1, 1", "4, 8", "3, 7", "8, 32"})
+    void csrMatchesDenseOnOddLayers(int blockRows, int blockColumns) {
+        NeuronLayer source = layer(37, 29);
+        source.prune(0.6, blockRows, blockColumns);
+        double[] x = input(37);
+        double[] expected = new double[29];
+        double[] actual = new double[29];
+        new DenseLayer(source).apply(x, expected);
+        new CsrLayer(source, blockRows, blockColumns).apply(x, actual);
+        assertArrayEquals(expected, actual, 1e-12);
+    }
+
+    //шаг оптимизатора с моментом сдвинул бы обнуленные веса, после update они снова нули
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void prunedWeightsStayZeroAfterUpdate(Precision precision) {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(30, 20, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .addHiddenLayer(new NeuronLayer(20, 5, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(5, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .withPrecision(precision)
+                .build();
+        network.setOptimizer(new Optimizer.GradientDescent(0.5));
+        network.setMomentum(0.9);
+        NeuronLayer target = network.getLayers()[0];
+        Pruning.prune(network, 0, 0.5, 4, 8);
+        double[] pruned = target.getWeights().clone();
+        double sparsity = target.getSparsity();
+        for (int batch = 0; batch < 5; batch++) {
+            Number[] samples = new Number[20];
+            double[][] expected = new double[samples.length][5];
+            for (int n = 0; n < samples.length; n++) {
+                samples[n] = new Number(input(30), n % 5);
+                expected[n][n % 5] = 1;
+            }
+            network.trainBatch(samples, expected);
+        }
+        double[] trained = target.getWeights();
+        boolean changed = false;
+        for (int i = 0; i < pruned.length; i++) {
+            if (pruned[i] == 0) {
+                assertEquals(0, trained[i], "weight " + i);
+            } else {
+                changed |= trained[i] != pruned[i];
+            }
+        }
+        assertTrue(changed, "the remaining weights should be trained");
+        assertEquals(sparsity, target.getSparsity());
+    }
+}
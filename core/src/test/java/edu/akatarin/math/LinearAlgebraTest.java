@@ -0,0 +1,379 @@
+package edu.akatarin.math;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+//блочные ядра против наивных тройных циклов. Размеры не кратны блокам и длине вектора,
+//чтобы проверялись и хвосты. Тесты запускаются дважды: с Vector API и со скалярными ядрами (см. core/pom.xml)
+class LinearAlgebraTest {
+    private static final int BATCH = 37;
+    private static final int ROWS = 131;
+    private static final int COLS = 301;
+    private static final double EPSILON = 1e-12;
+
+    private final Random random = new Random(1);
+    private final double[] x = random.doubles(BATCH * ROWS, -1, 1).toArray();
+    private final double[] a = random.doubles(ROWS * COLS, -1, 1).toArray();
+    private final double[] d = random.doubles(BATCH * COLS, -1, 1).toArray();
+    private final float[] floatA = toFloat(a);
+
+    @Test
+    void multiplyAddsProduct() {
+        double[] y = random.doubles(BATCH * COLS).toArray();
+        double[] expected = y.clone();
+        for (int s = 0; s < BATCH; s++) {
+            for (int j = 0; j < COLS; j++) {
+                for (int k = 0; k < ROWS; k++) {
+                    expected[s * COLS + j] += x[s * ROWS + k] * a[k * COLS + j];
+                }
+            }
+        }
+        LinearAlgebra.multiply(x, a, y, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, y, EPSILON);
+    }
+
+    @Test
+    void multiplyTransposedOverwrites() {
+        double[] e = random.doubles(BATCH * ROWS).toArray();
+        double[] expected = new double[BATCH * ROWS];
+        for (int s = 0; s < BATCH; s++) {
+            for (int k = 0; k < ROWS; k++) {
+                for (int j = 0; j < COLS; j++) {
+                    expected[s * ROWS + k] += d[s * COLS + j] * a[k * COLS + j];
+                }
+            }
+        }
+        LinearAlgebra.multiplyTransposed(d, a, e, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, e, EPSILON);
+    }
+
+    @Test
+    void addTransposedProductAddsOuterProducts() {
+        double[] g = random.doubles(ROWS * COLS).toArray();
+        double[] expected = g.clone();
+        for (int k = 0; k < ROWS; k++) {
+            for (int j = 0; j < COLS; j++) {
+                for (int s = 0; s < BATCH; s++) {
+                    expected[k * COLS + j] += x[s * ROWS + k] * d[s * COLS + j];
+                }
+            }
+        }
+        LinearAlgebra.addTransposedProduct(x, d, g, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, g, EPSILON);
+    }
+
+    @Test
+    void vectorKernelsHandleOffsetsAndTails() {
+        for (int length = 0; length < 40; length++) {
+            double[] y = random.doubles(length + 5).toArray();
+            double[] expected = y.clone();
+            double dot = 0;
+            for (int j = 0; j < length; j++) {
+                expected[3 + j] += 0.5 * a[7 + j];
+                dot += a[7 + j] * d[2 + j];
+            }
+            LinearAlgebra.axpy(0.5, a, 7, y, 3, length);
+            assertArrayEquals(expected, y, EPSILON, "axpy, length " + length);
+            assertEquals(dot, LinearAlgebra.dot(a, 7, d, 2, length), EPSILON, "dot, length " + length);
+        }
+    }
+
+    @Test
+    void floatWeightsMatchWidenedWeights() {
+        double[] widened = new double[floatA.length];
+        for (int i = 0; i < widened.length; i++) {
+            widened[i] = floatA[i];
+        }
+        double[] expected = random.doubles(BATCH * COLS).toArray();
+        double[] y = expected.clone();
+        LinearAlgebra.multiply(x, widened, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiply(x, floatA, y, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, y, EPSILON);
+        expected = new double[BATCH * ROWS];
+        double[] e = random.doubles(BATCH * ROWS).toArray();
+        LinearAlgebra.multiplyTransposed(d, widened, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiplyTransposed(d, floatA, e, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, e, EPSILON);
+    }
+
+    //градиент одинарной точности копится во float: сверка с double-суммой с точностью float
+    @Test
+    void addTransposedProductAccumulatesFloatGradients() {
+        float[] g = toFloat(random.doubles(ROWS * COLS).toArray());
+        double[] expected = new double[g.length];
+        for (int i = 0; i < g.length; i++) {
+            expected[i] = g[i];
+        }
+        LinearAlgebra.addTransposedProduct(x, d, expected, BATCH, ROWS, COLS);
+        float[] sparse = g.clone();
+        LinearAlgebra.addTransposedProduct(x, d, g, BATCH, ROWS, COLS);
+        assertArrayEquals(toFloat(expected), g, 1e-4f);
+        LinearAlgebra.addTransposedProductSparse(x, d, sparse, BATCH, ROWS, COLS);
+        assertArrayEquals(toFloat(expected), sparse, 1e-4f);
+    }
+
+    @Test
+    void floatKernelsHandleOffsetsAndTails() {
+        for (int length = 0; length < 40; length++) {
+            double[] y = random.doubles(length + 5).toArray();
+            double[] expected = y.clone();
+            float[] floatY = toFloat(y);
+            float[] floatExpected = floatY.clone();
+            double dot = 0;
+            for (int j = 0; j < length; j++) {
+                expected[3 + j] += 0.5 * floatA[7 + j];
+                floatExpected[3 + j] += (float) (0.5 * a[7 + j]);
+                dot += d[2 + j] * floatA[7 + j];
+            }
+            LinearAlgebra.axpy(0.5, floatA, 7, y, 3, length);
+            assertArrayEquals(expected, y, EPSILON, "axpy, length " + length);
+            //произведение округляется до float и складывается во float и в векторном ядре, поэтому побитно
+            LinearAlgebra.axpy(0.5, a, 7, floatY, 3, length);
+            assertArrayEquals(floatExpected, floatY, "float axpy, length " + length);
+            assertEquals(dot, LinearAlgebra.dot(d, 2, floatA, 7, length), EPSILON, "dot, length " + length);
+        }
+    }
+
+    //входы с нулями, как пиксели MNIST: 70% нулей и целиком нулевая строка пакета
+    private double[] sparseX() {
+        double[] sparse = x.clone();
+        for (int i = 0; i < sparse.length; i++) {
+            if (random.nextDouble() < 0.7 || i / ROWS == 3) {
+                sparse[i] = 0;
+            }
+        }
+        return sparse;
+    }
+
+    @Test
+    void multiplySparseMatchesDense() {
+        double[] sparse = sparseX();
+        double[] expected = random.doubles(BATCH * COLS).toArray();
+        double[] y = expected.clone();
+        double[] floatY = expected.clone();
+        double[] floatExpected = expected.clone();
+        LinearAlgebra.multiply(sparse, a, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiplySparse(sparse, a, y, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, y, EPSILON);
+        LinearAlgebra.multiply(sparse, floatA, floatExpected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiplySparse(sparse, floatA, floatY, BATCH, ROWS, COLS);
+        assertArrayEquals(floatExpected, floatY, EPSILON);
+    }
+
+    @Test
+    void multiplySparseBytesMatchesDense() {
+        double[] lookup = new double[256];
+        for (int b = 0; b < lookup.length; b++) {
+            lookup[b] = b / 255.0;
+        }
+        byte[] bytes = new byte[ROWS + 5];
+        for (int k = 0; k < ROWS; k++) {
+            bytes[5 + k] = random.nextDouble() < 0.7 ? 0 : (byte) random.nextInt(256);
+        }
+        double[] widened = new double[ROWS];
+        for (int k = 0; k < ROWS; k++) {
+            widened[k] = lookup[bytes[5 + k] & 0xFF];
+        }
+        double[] expected = new double[COLS];
+        double[] floatExpected = new double[COLS];
+        LinearAlgebra.multiply(widened, a, expected, 1, ROWS, COLS);
+        LinearAlgebra.multiply(widened, floatA, floatExpected, 1, ROWS, COLS);
+        double[] y = new double[COLS];
+        LinearAlgebra.multiplySparse(bytes, 5, lookup, a, y, ROWS, COLS);
+        assertArrayEquals(expected, y, EPSILON);
+        y = new double[COLS];
+        LinearAlgebra.multiply(bytes, 5, lookup, a, y, ROWS, COLS);
+        assertArrayEquals(expected, y, EPSILON);
+        y = new double[COLS];
+        LinearAlgebra.multiplySparse(bytes, 5, lookup, floatA, y, ROWS, COLS);
+        assertArrayEquals(floatExpected, y, EPSILON);
+    }
+
+    @Test
+    void addTransposedProductSparseMatchesDense() {
+        double[] sparse = sparseX();
+        double[] expected = random.doubles(ROWS * COLS).toArray();
+        double[] g = expected.clone();
+        LinearAlgebra.addTransposedProduct(sparse, d, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.addTransposedProductSparse(sparse, d, g, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, g, EPSILON);
+    }
+
+    //int8 в [-127, 127], как у квантованных весов и входов
+    private byte[] int8(int length) {
+        byte[] values = new byte[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (byte) (random.nextInt(255) - 127);
+        }
+        return values;
+    }
+
+    //длины до 130 дают несколько полных векторов и хвост любой длины при любой ширине вектора
+    @Test
+    void int8KernelsMatchIntegerLoops() {
+        for (int length = 0; length <= 130; length++) {
+            byte[] x = int8(length + 3);
+            byte[] rows = int8(2 * length + 7);
+            int alpha0 = random.nextInt(255) - 127;
+            int alpha1 = random.nextInt(255) - 127;
+            int dot = 0;
+            int[] y = random.ints(length + 2, -1000, 1000).toArray();
+            int[] expectedAxpy = y.clone();
+            int[] expectedAxpy2 = y.clone();
+            for (int j = 0; j < length; j++) {
+                dot += x[3 + j] * rows[5 + j];
+                expectedAxpy[2 + j] += alpha0 * rows[5 + j];
+                expectedAxpy2[2 + j] += alpha0 * rows[5 + j] + alpha1 * rows[6 + length + j];
+            }
+            assertEquals(dot, LinearAlgebra.dot(x, 3, rows, 5, length), "dot, length " + length);
+            int[] actual = y.clone();
+            LinearAlgebra.axpy(alpha0, rows, 5, actual, 2, length);
+            assertArrayEquals(expectedAxpy, actual, "axpy, length " + length);
+            actual = y.clone();
+            LinearAlgebra.axpy2(alpha0, alpha1, rows, 5, 6 + length, actual, 2, length);
+            assertArrayEquals(expectedAxpy2, actual, "axpy2, length " + length);
+        }
+    }
+
+    //крайние значения: -127 * -127 в каждой паре, alpha -128 и 127. Суммы не должны переполнять short
+    @Test
+    void int8KernelsHandleExtremeValues() {
+        int length = 4099;
+        byte[] low = new byte[length];
+        Arrays.fill(low, (byte) -127);
+        assertEquals(length * 127 * 127, LinearAlgebra.dot(low, 0, low, 0, length));
+        int[] y = new int[length];
+        LinearAlgebra.axpy(-128, low, 0, y, 0, length);
+        LinearAlgebra.axpy(127, low, 0, y, 0, length);
+        for (int j = 0; j < length; j++) {
+            assertEquals(127, y[j], "axpy, element " + j);
+        }
+        y = new int[length];
+        LinearAlgebra.axpy2(-127, -127, low, 0, 0, y, 0, length);
+        for (int j = 0; j < length; j++) {
+            assertEquals(2 * 127 * 127, y[j], "axpy2, element " + j);
+        }
+    }
+
+    @Test
+    void sigmoidMatchesDefinition() {
+        double[] z = random.doubles(COLS, -10, 10).toArray();
+        double[] expected = new double[COLS];
+        for (int i = 0; i < COLS; i++) {
+            expected[i] = 1.0 / (1.0 + Math.exp(-z[i]));
+        }
+        double[] actual = new double[COLS];
+        LinearAlgebra.sigmoid(z, actual, 0, COLS);
+        assertArrayEquals(expected, actual, 1e-14);
+    }
+
+    //пакет во float против double-ядер на тех же значениях, округленных до float:
+    //суммы до 301 произведения в одинарной точности отходят от double меньше чем на 1e-4
+    @Test
+    void floatBatchKernelsMatchDoubleKernels() {
+        float[] floatX = toFloat(sparseX());
+        float[] floatD = toFloat(d);
+        double[] wideX = toDouble(floatX);
+        double[] wideA = toDouble(floatA);
+        double[] wideD = toDouble(floatD);
+        double epsilon = 1e-4;
+
+        float[] y = toFloat(random.doubles(BATCH * COLS).toArray());
+        float[] sparseY = y.clone();
+        double[] expected = toDouble(y);
+        LinearAlgebra.multiply(wideX, wideA, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiply(floatX, floatA, y, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(y), epsilon, "multiply");
+        LinearAlgebra.multiplySparse(floatX, floatA, sparseY, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(sparseY), epsilon, "multiplySparse");
+
+        float[] errors = toFloat(random.doubles(BATCH * ROWS).toArray());
+        expected = new double[BATCH * ROWS];
+        LinearAlgebra.multiplyTransposed(wideD, wideA, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.multiplyTransposed(floatD, floatA, errors, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(errors), epsilon, "multiplyTransposed");
+        for (int i = 0; i < expected.length; i++) {
+            if (floatX[i] == 0) {
+                expected[i] = 0;
+            }
+        }
+        LinearAlgebra.multiplyTransposedMasked(floatD, floatA, floatX, errors, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(errors), epsilon, "multiplyTransposedMasked");
+
+        float[] g = toFloat(random.doubles(ROWS * COLS).toArray());
+        float[] sparseG = g.clone();
+        expected = toDouble(g);
+        LinearAlgebra.addTransposedProduct(wideX, wideD, expected, BATCH, ROWS, COLS);
+        LinearAlgebra.addTransposedProduct(floatX, floatD, g, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(g), epsilon, "addTransposedProduct");
+        LinearAlgebra.addTransposedProductSparse(floatX, floatD, sparseG, BATCH, ROWS, COLS);
+        assertArrayEquals(expected, toDouble(sparseG), epsilon, "addTransposedProductSparse");
+    }
+
+    @Test
+    void floatVectorKernelsHandleOffsetsAndTails() {
+        float[] floatD = toFloat(d);
+        for (int length = 0; length < 70; length++) {
+            float[] y = toFloat(random.doubles(length + 5).toArray());
+            double[] expected = toDouble(y);
+            double dot = 0;
+            for (int j = 0; j < length; j++) {
+                expected[3 + j] += 0.5 * floatA[7 + j];
+                dot += (double) floatD[2 + j] * floatA[7 + j];
+            }
+            LinearAlgebra.axpy(0.5f, floatA, 7, y, 3, length);
+            assertArrayEquals(expected, toDouble(y), 1e-6, "axpy, length " + length);
+            assertEquals(dot, LinearAlgebra.dot(floatD, 2, floatA, 7, length), 1e-5, "dot, length " + length);
+        }
+    }
+
+    //активации во float против double на отрезке с невыровненными границами
+    @Test
+    void floatActivationsMatchDouble() {
+        double[] z = toDouble(toFloat(random.doubles(COLS, -10, 10).toArray()));
+        double[] grad = toDouble(toFloat(random.doubles(COLS, -1, 1).toArray()));
+        float[] floatZ = toFloat(z);
+        float[] floatGrad = toFloat(grad);
+        int from = 3;
+        int to = COLS - 2;
+        double[] expected = new double[COLS];
+        float[] actual = new float[COLS];
+        LinearAlgebra.sigmoid(z, expected, from, to);
+        LinearAlgebra.sigmoid(floatZ, actual, from, to);
+        assertArrayEquals(expected, toDouble(actual), 1e-6, "sigmoid");
+        LinearAlgebra.sigmoidDerivative(expected, grad, expected, from, to);
+        LinearAlgebra.sigmoidDerivative(actual, floatGrad, actual, from, to);
+        assertArrayEquals(expected, toDouble(actual), 1e-6, "sigmoidDerivative");
+        LinearAlgebra.relu(z, expected, from, to);
+        LinearAlgebra.relu(floatZ, actual, from, to);
+        assertArrayEquals(expected, toDouble(actual), 0.0, "relu");
+        LinearAlgebra.reluDerivative(z, grad, expected, from, to);
+        LinearAlgebra.reluDerivative(floatZ, floatGrad, actual, from, to);
+        assertArrayEquals(expected, toDouble(actual), 0.0, "reluDerivative");
+        double sum = LinearAlgebra.expShifted(z, 10, expected, from, to);
+        float floatSum = LinearAlgebra.expShifted(floatZ, 10f, actual, from, to);
+        assertArrayEquals(expected, toDouble(actual), 1e-6, "expShifted");
+        assertEquals(sum, floatSum, 1e-5 * sum, "expShifted sum");
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    private static double[] toDouble(float[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+}
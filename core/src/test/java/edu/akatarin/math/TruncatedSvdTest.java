@@ -0,0 +1,228 @@
+package edu.akatarin.math;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//разложение матриц с известными сингулярными числами: A = U * diag(s) * V^T, U и V с ортонормированными столбцами
+class TruncatedSvdTest {
+    private static final double[] SINGULAR_VALUES = {10, 5, 3, 2, 1};
+    private static final double EPSILON = 1e-10;
+
+    private final Random random = new Random(1);
+
+    //n x m построчно, столбцы ортонормированы
+    private double[] orthonormalColumns(int n, int m) {
+        double[][] columns = new double[m][];
+        for (int c = 0; c < m; c++) {
+            double[] v = random.doubles(n).map(value -> value - 0.5).toArray();
+            for (int b = 0; b < c; b++) {
+                double projection = product(v, columns[b]);
+                for (int i = 0; i < n; i++) {
+                    v[i] -= projection * columns[b][i];
+                }
+            }
+            double norm = Math.sqrt(product(v, v));
+            for (int i = 0; i < n; i++) {
+                v[i] /= norm;
+            }
+            columns[c] = v;
+        }
+        double[] u = new double[n * m];
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < m; c++) {
+                u[i * m + c] = columns[c][i];
+            }
+        }
+        return u;
+    }
+
+    private static double product(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
+    private double[] matrix(int rows, int cols, double[] s) {
+        double[] u = orthonormalColumns(rows, s.length);
+        double[] v = orthonormalColumns(cols, s.length);
+        double[] a = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                for (int m = 0; m < s.length; m++) {
+                    a[i * cols + j] += u[i * s.length + m] * s[m] * v[j * s.length + m];
+                }
+            }
+        }
+        return a;
+    }
+
+    //L * R, L - rows x r, R - r x cols
+    private static double[] reconstruct(TruncatedSvd svd, int r) {
+        double[] left = svd.getLeft(r);
+        double[] right = svd.getRight(r);
+        double[] a = new double[svd.getRows() * svd.getCols()];
+        for (int i = 0; i < svd.getRows(); i++) {
+            for (int m = 0; m < r; m++) {
+                for (int j = 0; j < svd.getCols(); j++) {
+                    a[i * svd.getCols() + j] += left[i * r + m] * right[m * svd.getCols() + j];
+                }
+            }
+        }
+        return a;
+    }
+
+    private static void assertOrthonormalColumns(double[] left, int rows, int r) {
+        for (int p = 0; p < r; p++) {
+            for (int q = 0; q < r; q++) {
+                double sum = 0;
+                for (int i = 0; i < rows; i++) {
+                    sum += left[i * r + p] * left[i * r + q];
+                }
+                assertEquals(p == q ? 1 : 0, sum, EPSILON, "L^T * L at " + p + ", " + q);
+            }
+        }
+    }
+
+    //матрица ранга 5 восстанавливается точно, в обеих ориентациях
+    @ParameterizedTest
+    @CsvSource({"60, 40", "30, 70", "5, 5"})
+    void reconstructsLowRankMatrix(int rows, int cols) {
+        double[] a = matrix(rows, cols, SINGULAR_VALUES);
+        TruncatedSvd svd = TruncatedSvd.of(a, rows, cols, SINGULAR_VALUES.length);
+        assertEquals(SINGULAR_VALUES.length, svd.getRank());
+        assertArrayEquals(SINGULAR_VALUES, svd.getSingularValues(), EPSILON);
+        assertArrayEquals(a, reconstruct(svd, SINGULAR_VALUES.length), EPSILON);
+        assertOrthonormalColumns(svd.getLeft(SINGULAR_VALUES.length), rows, SINGULAR_VALUES.length);
+    }
+
+    //у обычной матрицы полного ранга L ортонормирована, а сингулярные числа убывают
+    @Test
+    void leftVectorsAreOrthonormalAndValuesDescend() {
+        int rows = 50;
+        int cols = 30;
+        double[] a = random.doubles(rows * cols, -1, 1).toArray();
+        TruncatedSvd svd = TruncatedSvd.of(a, rows, cols, 12);
+        assertOrthonormalColumns(svd.getLeft(12), rows, 12);
+        double[] values = svd.getSingularValues();
+        for (int m = 1; m < values.length; m++) {
+            assertTrue(values[m] <= values[m - 1], "singular values should descend: " + Arrays.toString(values));
+        }
+        assertTrue(values[values.length - 1] > 0);
+    }
+
+    //при k = min(rows, cols) базис покрывает всю матрицу, и Якоби дает точное разложение полного ранга
+    @Test
+    void fullRankDecompositionIsExact() {
+        double[] a = random.doubles(12 * 9, -1, 1).toArray();
+        TruncatedSvd svd = TruncatedSvd.of(a, 12, 9, 9);
+        assertArrayEquals(a, reconstruct(svd, 9), EPSILON);
+        assertOrthonormalColumns(svd.getLeft(9), 12, 9);
+    }
+
+    //совпадающие сингулярные числа: у Якоби поворот с theta = 0
+    @Test
+    void handlesRepeatedSingularValues() {
+        double[] s = {4, 4, 4, 1};
+        double[] a = matrix(20, 15, s);
+        TruncatedSvd svd = TruncatedSvd.of(a, 20, 15, s.length);
+        assertArrayEquals(s, svd.getSingularValues(), EPSILON);
+        assertArrayEquals(a, reconstruct(svd, s.length), EPSILON);
+        assertOrthonormalColumns(svd.getLeft(s.length), 20, s.length);
+    }
+
+    //первые r векторов разложения ранга rank - это разложение ранга r, и ошибка равна отброшенным числам
+    @Test
+    void slicesAreTruncations() {
+        int rows = 40;
+        int cols = 25;
+        double[] a = matrix(rows, cols, SINGULAR_VALUES);
+        TruncatedSvd svd = TruncatedSvd.of(a, rows, cols, SINGULAR_VALUES.length);
+        double[] left = svd.getLeft(SINGULAR_VALUES.length);
+        double[] right = svd.getRight(SINGULAR_VALUES.length);
+        for (int r = 1; r <= SINGULAR_VALUES.length; r++) {
+            double[] leftSlice = svd.getLeft(r);
+            for (int i = 0; i < rows; i++) {
+                assertArrayEquals(Arrays.copyOfRange(left, i * SINGULAR_VALUES.length, i * SINGULAR_VALUES.length + r),
+                        Arrays.copyOfRange(leftSlice, i * r, (i + 1) * r), "row " + i + " of L for rank " + r);
+            }
+            assertArrayEquals(Arrays.copyOf(right, r * cols), svd.getRight(r), "R for rank " + r);
+
+            double[] truncated = reconstruct(svd, r);
+            double error = 0;
+            for (int i = 0; i < a.length; i++) {
+                error += (a[i] - truncated[i]) * (a[i] - truncated[i]);
+            }
+            double dropped = 0;
+            for (int m = r; m < SINGULAR_VALUES.length; m++) {
+                dropped += SINGULAR_VALUES[m] * SINGULAR_VALUES[m];
+            }
+            assertEquals(dropped, error, 1e-8, "squared error for rank " + r);
+        }
+    }
+
+    //ранг больше настоящего: Грам-Шмидт обнуляет зависимые векторы базиса, лишние сингулярные числа нулевые,
+    //NaN не появляются, а разложение по-прежнему восстанавливает матрицу
+    @Test
+    void rankAboveMatrixRankGivesZeroValues() {
+        int rows = 30;
+        int cols = 20;
+        double[] a = matrix(rows, cols, SINGULAR_VALUES);
+        //повторенные строки
+        System.arraycopy(a, 0, a, cols, cols);
+        System.arraycopy(a, 2 * cols, a, 3 * cols, cols);
+        TruncatedSvd svd = TruncatedSvd.of(a, rows, cols, 9);
+        double[] values = svd.getSingularValues();
+        for (int m = 0; m < values.length; m++) {
+            assertTrue(Double.isFinite(values[m]), "singular value " + m);
+        }
+        for (int m = SINGULAR_VALUES.length; m < values.length; m++) {
+            assertEquals(0, values[m], EPSILON, "singular value " + m);
+        }
+        for (double value : svd.getLeft(9)) {
+            assertTrue(Double.isFinite(value));
+        }
+        for (double value : svd.getRight(9)) {
+            assertTrue(Double.isFinite(value));
+        }
+        assertArrayEquals(a, reconstruct(svd, 9), EPSILON);
+        assertOrthonormalColumns(svd.getLeft(SINGULAR_VALUES.length), rows, SINGULAR_VALUES.length);
+    }
+
+    //точно зависимые векторы базиса дают нулевой остаток, без обнуления он делился бы на ноль
+    @Test
+    void exactlyDependentBasisGivesZeroVectors() {
+        double[] a = new double[8 * 6];
+        a[2 * 6 + 3] = 3;
+        TruncatedSvd svd = TruncatedSvd.of(a, 8, 6, 3);
+        assertArrayEquals(new double[]{3, 0, 0}, svd.getSingularValues(), EPSILON);
+        assertArrayEquals(a, reconstruct(svd, 3), EPSILON);
+
+        TruncatedSvd zero = TruncatedSvd.of(new double[8 * 6], 8, 6, 2);
+        assertArrayEquals(new double[2], zero.getSingularValues());
+        assertArrayEquals(new double[8 * 2], zero.getLeft(2));
+        assertArrayEquals(new double[2 * 6], zero.getRight(2));
+    }
+
+    @Test
+    void rejectsInvalidRank() {
+        double[] a = random.doubles(6 * 4).toArray();
+        assertThrows(IllegalArgumentException.class, () -> TruncatedSvd.of(a, 6, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> TruncatedSvd.of(a, 6, 4, 5));
+        TruncatedSvd svd = TruncatedSvd.of(a, 6, 4, 3);
+        assertThrows(IllegalArgumentException.class, () -> svd.getLeft(0));
+        assertThrows(IllegalArgumentException.class, () -> svd.getLeft(4));
+        assertThrows(IllegalArgumentException.class, () -> svd.getRight(0));
+        assertThrows(IllegalArgumentException.class, () -> svd.getRight(4));
+    }
+}
@@ -0,0 +1,74 @@
+package edu.akatarin.util;
+
+import edu.akatarin.Batch;
+import edu.akatarin.BatchPipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Decoding IDX files into the cache for sets with more classes than the ten
+ * MNIST digits, as in the EMNIST splits.
+ */
+class MNISTLoaderTest {
+    private static final int ROWS = 4;
+    private static final int COLS = 3;
+
+    @TempDir
+    Path directory;
+
+    private void writeIdx(Path file, int magic, int[] dimensions, byte[] data) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(magic);
+            for (int dimension : dimensions) {
+                out.writeInt(dimension);
+            }
+            out.write(data);
+        }
+    }
+
+    @Test
+    void cacheKeepsLabelsAboveNine() throws IOException {
+        Random random = new Random(1);
+        int count = 50;
+        byte[] labels = new byte[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = (byte) random.nextInt(47);
+        }
+        //the largest label of the EMNIST balanced split
+        labels[7] = 46;
+        byte[] images = new byte[count * ROWS * COLS];
+        random.nextBytes(images);
+        String prefix = directory.resolve("emnist").toString();
+        writeIdx(Path.of(prefix + "-images-idx3-ubyte.gz"), 2051, new int[]{count, ROWS, COLS}, images);
+        writeIdx(Path.of(prefix + "-labels-idx1-ubyte.gz"), 2049, new int[]{count}, labels);
+
+        MNISTDataset dataset = MNISTLoader.openDataset(prefix);
+        assertNotNull(dataset);
+        assertEquals(count, dataset.size());
+        assertEquals(47, dataset.getClassCount());
+        for (int i = 0; i < count; i++) {
+            assertEquals(labels[i], dataset.getLabel(i), "label " + i);
+        }
+
+        //targets are one-hot over all classes
+        try (BatchPipeline pipeline = new BatchPipeline(dataset, count, 1, 1)) {
+            Batch batch = pipeline.next();
+            for (int n = 0; n < batch.size(); n++) {
+                double[] expected = new double[47];
+                expected[batch.getLabel(n)] = 1;
+                assertArrayEquals(expected, batch.getTargets()[n], "target " + n);
+            }
+        }
+    }
+}
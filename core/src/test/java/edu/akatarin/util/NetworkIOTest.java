@@ -0,0 +1,123 @@
+package edu.akatarin.util;
+
+import edu.akatarin.Activation;
+import edu.akatarin.CostFunction;
+import edu.akatarin.Initializer;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuralNetworkBuilder;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.Optimizer;
+import edu.akatarin.Precision;
+import edu.akatarin.inference.InferenceNetwork;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Round trips of a trained network through the binary format, both copied
+ * into a trainable network and mapped for inference.
+ */
+class NetworkIOTest {
+
+    @TempDir
+    Path directory;
+
+    private static NeuralNetwork trainedNetwork(Precision precision) {
+        NeuralNetwork network = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(30, 17, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .addHiddenLayer(new NeuronLayer(17, 5, Activation.ReLU, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(5, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .withPrecision(precision)
+                .build();
+        network.setOptimizer(new Optimizer.GradientDescent(0.1));
+        Number[] samples = samples(40, 1);
+        double[][] expected = new double[samples.length][5];
+        for (int i = 0; i < samples.length; i++) {
+            expected[i][samples[i].getValue()] = 1;
+        }
+        //one step makes the biases non-zero
+        network.trainBatch(samples, expected);
+        return network;
+    }
+
+    private static Number[] samples(int count, long seed) {
+        Random random = new Random(seed);
+        Number[] samples = new Number[count];
+        for (int i = 0; i < count; i++) {
+            double[] pixels = new double[30];
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = random.nextDouble() < 0.5 ? 0 : random.nextDouble();
+            }
+            samples[i] = new Number(pixels, i % 5);
+        }
+        return samples;
+    }
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void loadRestoresWeightsAndBiases(Precision precision) {
+        NeuralNetwork network = trainedNetwork(precision);
+        String fileName = directory.resolve("network.dat").toString();
+        NetworkIO.saveNetwork(fileName, network);
+        NeuralNetwork loaded = NetworkIO.loadNetwork(fileName);
+        for (int k = 0; k < network.getLayers().length; k++) {
+            NeuronLayer expected = network.getLayers()[k];
+            NeuronLayer actual = loaded.getLayers()[k];
+            assertArrayEquals(expected.getWeights(), actual.getWeights(), "weights of layer " + k);
+            assertArrayEquals(expected.getBiases(), actual.getBiases(), "biases of layer " + k);
+        }
+        //the loaded file is neither open nor mapped, so it can be saved over at once
+        NetworkIO.saveNetwork(fileName, loaded);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void mappedNetworkPredictsLikeLoadedNetwork(Precision precision) {
+        NeuralNetwork network = trainedNetwork(precision);
+        String fileName = directory.resolve("network.dat").toString();
+        NetworkIO.saveNetwork(fileName, network);
+        InferenceNetwork reference = InferenceNetwork.dense(network);
+        InferenceNetwork mapped = NetworkIO.mapNetwork(fileName);
+        for (Number sample : samples(20, 2)) {
+            assertArrayEquals(reference.predict(sample), mapped.predict(sample), 1e-12);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    @DisabledOnOs(value = OS.WINDOWS, disabledReason = "a mapped file can't be replaced on Windows")
+    void savingOverMappedFileKeepsMappedWeights(Precision precision) {
+        String fileName = directory.resolve("network.dat").toString();
+        NetworkIO.saveNetwork(fileName, trainedNetwork(precision));
+        InferenceNetwork mapped = NetworkIO.mapNetwork(fileName);
+        Number[] samples = samples(10, 2);
+        double[][] before = new double[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            before[i] = mapped.predict(samples[i]);
+        }
+        //a smaller network with other weights replaces the file while it is mapped
+        NeuralNetwork other = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(new NeuronLayer(30, 5, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
+                .withOutputLayer(new NeuronLayer(5, 0, Activation.Softmax))
+                .withCostFunction(CostFunction.CROSS_ENTROPY)
+                .build();
+        NetworkIO.saveNetwork(fileName, other);
+        for (int i = 0; i < samples.length; i++) {
+            assertArrayEquals(before[i], mapped.predict(samples[i]));
+        }
+        assertFalse(Files.exists(directory.resolve("network.dat.tmp")));
+        NeuralNetwork loaded = NetworkIO.loadNetwork(fileName);
+        assertArrayEquals(other.getLayers()[0].getWeights(), loaded.getLayers()[0].getWeights());
+    }
+}
@@ -1,141 +1,267 @@
 package edu.akatarin;
 
-import java.util.function.BiFunction;
-import java.util.function.UnaryOperator;
-import java.util.stream.DoubleStream;
+import edu.akatarin.math.LinearAlgebra;
 
 import static java.lang.Math.exp;
 import static java.lang.Math.log;
 
 public class Activation {
+    //разреженный обратный проход ReLU отключается флагом -Dedu.akatarin.sparseRelu=false
+    private static final boolean SPARSE_RELU = Boolean.parseBoolean(System.getProperty("edu.akatarin.sparseRelu", "true"));
     private final String name;
-    private final UnaryOperator<double[]> function;
-    private final BiFunction<double[], double[], double[]> derivative;
+    private final Function function;
+    private final Derivative derivative;
+    //те же функции для пакета, который считается во float (сеть одинарной точности)
+    private final FloatFunction floatFunction;
+    private final FloatDerivative floatDerivative;
+    //нулевой выход означает нулевую производную: ошибка через неактивный нейрон не проходит,
+    //а его нулевое значение не дает вклада в градиент весов
+    private final boolean sparseOutput;
 
-    private Activation(String name, UnaryOperator<double[]> function, BiFunction<double[], double[], double[]> derivative) {
+    private Activation(String name, Function function, Derivative derivative,
+                       FloatFunction floatFunction, FloatDerivative floatDerivative) {
+        this(name, function, derivative, floatFunction, floatDerivative, false);
+    }
+
+    private Activation(String name, Function function, Derivative derivative,
+                       FloatFunction floatFunction, FloatDerivative floatDerivative, boolean sparseOutput) {
         this.name = name;
         this.function = function;
         this.derivative = derivative;
+        this.floatFunction = floatFunction;
+        this.floatDerivative = floatDerivative;
+        this.sparseOutput = sparseOutput;
+    }
+
+    //fn(x, out, from, to) - пишет результат в out[from..to), out может совпадать с x
+    @FunctionalInterface
+    private interface Function {
+        void apply(double[] x, double[] out, int from, int to);
+    }
+
+    //dFn(x, y, out, from, to) - out = dO/dI * y на отрезке [from..to), x - значения нейронов,
+    //y - градиент функции ошибки по значениям нейронов, out может совпадать с y
+    @FunctionalInterface
+    private interface Derivative {
+        void apply(double[] x, double[] y, double[] out, int from, int to);
+    }
+
+    @FunctionalInterface
+    private interface FloatFunction {
+        void apply(float[] x, float[] out, int from, int to);
+    }
+
+    @FunctionalInterface
+    private interface FloatDerivative {
+        void apply(float[] x, float[] y, float[] out, int from, int to);
     }
 
     public String getName() {
         return name;
     }
 
+    public boolean hasSparseOutput() {
+        return sparseOutput;
+    }
+
+    //та же активация с обычным (не разреженным) обратным проходом, для сверки с разреженным
+    Activation withDenseBackward() {
+        return new Activation(name, function, derivative, floatFunction, floatDerivative, false);
+    }
+
     public double[] apply(double[] x) {
-        return function.apply(x);
+        double[] out = new double[x.length];
+        function.apply(x, out, 0, x.length);
+        return out;
+    }
+
+    public void apply(double[] x, double[] out) {
+        function.apply(x, out, 0, x.length);
+    }
+
+    //применяет функцию к одной строке матрицы пакета
+    public void apply(double[] x, double[] out, int from, int to) {
+        function.apply(x, out, from, to);
     }
 
     public double[] applyDerivative(double[] x, double[] y) {
-        return derivative.apply(x, y);
+        double[] dCdI = new double[x.length];
+        derivative.apply(x, y, dCdI, 0, x.length);
+        return dCdI;
+    }
+
+    public void applyDerivative(double[] x, double[] y, double[] out, int from, int to) {
+        derivative.apply(x, y, out, from, to);
+    }
+
+    public void apply(float[] x, float[] out, int from, int to) {
+        floatFunction.apply(x, out, from, to);
+    }
+
+    public void applyDerivative(float[] x, float[] y, float[] out, int from, int to) {
+        floatDerivative.apply(x, y, out, from, to);
     }
 
     public static Activation ReLU = new Activation(
             "ReLU",
-            x -> DoubleStream.of(x).map(v -> v <= 0 ? 0 : v).toArray(),// fn
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI = DoubleStream.of(x).map(v -> v <= 0 ? 0 : 1).toArray();// dFn
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
-            }
-
+            LinearAlgebra::relu,// fn
+            LinearAlgebra::reluDerivative,// dFn
+            LinearAlgebra::relu,
+            LinearAlgebra::reluDerivative,
+            SPARSE_RELU
     );
     public static Activation Leaky_ReLU = new Activation(
             "Leaky_ReLU",
-            x -> DoubleStream.of(x).map(v -> v > 0 ? v : 0.01 * v).toArray(),// fn,
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI = DoubleStream.of(x).map(v -> v < 0 ? 0.01 : 1).toArray();// dFn
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
+            (x, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = x[i] > 0 ? x[i] : 0.01 * x[i];
+                }
+            },// fn
+            (x, y, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (x[i] < 0 ? 0.01 : 1) * y[i];// dFn
+                }
+            },
+            (float[] x, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = x[i] > 0 ? x[i] : 0.01f * x[i];
+                }
+            },
+            (float[] x, float[] y, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (x[i] < 0 ? 0.01f : 1f) * y[i];
+                }
             }
     );
     public static Activation Sigmoid = new Activation(
             "Sigmoid",
-            x -> DoubleStream.of(x).map(v -> 1.0 / (1.0 + exp(-v))).toArray(),// fn
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI = DoubleStream.of(x).map(v -> v * (1.0 - v)).toArray();// dFn
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
-            }
-
+            LinearAlgebra::sigmoid,// fn
+            LinearAlgebra::sigmoidDerivative,// dFn
+            LinearAlgebra::sigmoid,
+            LinearAlgebra::sigmoidDerivative
     );
     public static Activation Softplus = new Activation(
             "Softplus",
-            x -> DoubleStream.of(x).map(v -> log(1.0 + exp(v))).toArray(),// fn
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI = DoubleStream.of(x).map(v -> 1.0 / (1.0 + exp(-v))).toArray();// dFn
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
+            (x, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = log(1.0 + exp(x[i]));
+                }
+            },// fn
+            (x, y, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (1.0 / (1.0 + exp(-x[i]))) * y[i];// dFn
+                }
+            },
+            (float[] x, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (float) log(1.0 + exp(x[i]));
+                }
+            },
+            (float[] x, float[] y, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (float) (1.0 / (1.0 + exp(-x[i]))) * y[i];
+                }
             }
-
     );
     public static Activation Identity = new Activation(
             "Identity",
-            x -> x,                   // fn
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI = DoubleStream.of(x).map(v -> 1.0).toArray();// dFn
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
+            (x, out, from, to) -> {
+                if (out != x) {
+                    System.arraycopy(x, from, out, from, to - from);
+                }
+            },// fn
+            (x, y, out, from, to) -> {
+                if (out != y) {
+                    System.arraycopy(y, from, out, from, to - from);// dFn
+                }
+            },
+            (float[] x, float[] out, int from, int to) -> {
+                if (out != x) {
+                    System.arraycopy(x, from, out, from, to - from);
+                }
+            },
+            (float[] x, float[] y, float[] out, int from, int to) -> {
+                if (out != y) {
+                    System.arraycopy(y, from, out, from, to - from);
+                }
             }
-
     );
     //Выгнутая тождественная функция
     public static Activation BentIdentity = new Activation(
             "BentIdentity",
-            x -> DoubleStream.of(x)
-                    .map(v -> ((Math.sqrt(Math.pow(v, 2) + 1) - 1) / 2) + v)
-                    .toArray(),// fn
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                double[] dOdI =  DoubleStream.of(x)
-                        .map(v -> 1 + (v / (2 * Math.sqrt(Math.pow(v, 2) + 1))))// dFn
-                        .toArray();
-                for (int i = 0; i < x.length; i++) {
-                    dCdI[i] = dOdI[i] * y[i];
-                }
-                return dCdI;
+            (x, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = ((Math.sqrt(x[i] * x[i] + 1) - 1) / 2) + x[i];
+                }
+            },// fn
+            (x, y, out, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (1 + (x[i] / (2 * Math.sqrt(x[i] * x[i] + 1)))) * y[i];// dFn
+                }
+            },
+            (float[] x, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (float) ((Math.sqrt(x[i] * x[i] + 1) - 1) / 2) + x[i];
+                }
+            },
+            (float[] x, float[] y, float[] out, int from, int to) -> {
+                for (int i = from; i < to; i++) {
+                    out[i] = (float) (1 + (x[i] / (2 * Math.sqrt(x[i] * x[i] + 1)))) * y[i];
+                }
             }
     );
 
     public static Activation Softmax = new Activation(
             "Softmax",
-            x -> {
-                double max = DoubleStream.of(x).max().orElse(0.0);
-                double sum = DoubleStream.of(x).map(v -> Math.exp(v - max)).sum();
-                return DoubleStream.of(x).map(v -> Math.exp(v - max) / sum).toArray();
+            (x, out, from, to) -> {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    max = Math.max(max, x[i]);
+                }
+                double sum = LinearAlgebra.expShifted(x, max, out, from, to);
+                for (int i = from; i < to; i++) {
+                    out[i] /= sum;
+                }
+            },
+            (x, y, out, from, to) -> {
+                //произведение матрицы Якоби J[i][j] = x[i] * (kroneckerDelta - x[j]) на вектор y
+                //раскрывается в x[i] * (y[i] - ∑x[j]*y[j]), саму матрицу строить не нужно
+                double dot = 0;
+                for (int j = from; j < to; j++) {
+                    dot += x[j] * y[j];
+                }
+                for (int i = from; i < to; i++) {
+                    out[i] = x[i] * (y[i] - dot);
+                }
             },
-            (x, y) -> {
-                double[] dCdI = new double[x.length];
-                //преобразуем вектор в диагональную матрицу размерности x^2
-                double[][] jacob = new double[x.length][x.length];
-                for (int i = 0; i < x.length; i++) {
-                    for (int j = 0; j < x.length; j++) {
-                        int kroneckerDelta = i == j ? 1 : 0;
-                        jacob[i][j] = x[i] * (kroneckerDelta - x[j]);
-                    }
-                }
-                //умножаем матрицу на вектор градиента функции ошибки
-                for (int i = 0; i < x.length; i++) {
-                    for (int j = 0; j < x.length; j++) {
-                        dCdI[i] += jacob[i][j] * y[j];
-                    }
-                }
-                return dCdI;
+            (float[] x, float[] out, int from, int to) -> {
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    max = Math.max(max, x[i]);
+                }
+                float sum = LinearAlgebra.expShifted(x, max, out, from, to);
+                for (int i = from; i < to; i++) {
+                    out[i] /= sum;
+                }
+            },
+            (float[] x, float[] y, float[] out, int from, int to) -> {
+                float dot = 0;
+                for (int j = from; j < to; j++) {
+                    dot += x[j] * y[j];
+                }
+                for (int i = from; i < to; i++) {
+                    out[i] = x[i] * (y[i] - dot);
+                }
             }
     );
+
+    //функция активации по имени, см. getName
+    public static Activation valueOf(String name) {
+        for (Activation activation : new Activation[]{ReLU, Leaky_ReLU, Sigmoid, Softplus, Identity, BentIdentity, Softmax}) {
+            if (activation.name.equals(name)) {
+                return activation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown activation: " + name);
+    }
 }
@@ -0,0 +1,89 @@
+package edu.akatarin;
+
+import java.util.Arrays;
+
+//пакет примеров в предвыделенных буферах: входы - матрица capacity x inputSize построчно,
+//ожидаемые выходы - по строке на пример. Заполняется BatchPipeline и переиспользуется между пакетами
+public final class Batch {
+    private final int inputSize;
+    private final double[] inputs;
+    private final double[][] targets;
+    private final int[] labels;
+    private int size;
+    private int epoch;
+    private int index;
+
+    public Batch(int capacity, int inputSize, int outputSize) {
+        this.inputSize = inputSize;
+        inputs = new double[capacity * inputSize];
+        targets = new double[capacity][outputSize];
+        labels = new int[capacity];
+    }
+
+    //число примеров в пакете
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return labels.length;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public double[] getInputs() {
+        return inputs;
+    }
+
+    public double[][] getTargets() {
+        return targets;
+    }
+
+    public int getLabel(int n) {
+        return labels[n];
+    }
+
+    //номер эпохи, начиная с 1
+    public int getEpoch() {
+        return epoch;
+    }
+
+    //номер пакета в эпохе
+    public int getIndex() {
+        return index;
+    }
+
+    //пишет пример number в строку n
+    public void set(int n, Number number) {
+        number.copyPixels(inputs, n * inputSize);
+        setLabel(n, number.getValue());
+    }
+
+    //пишет пример index набора source в строку n
+    public void set(int n, SampleSource source, int index) {
+        source.getPixels(index, inputs, n * inputSize);
+        setLabel(n, source.getLabel(index));
+    }
+
+    //ожидаемый выход - единица в позиции label, длина строки - число классов набора
+    private void setLabel(int n, int label) {
+        double[] target = targets[n];
+        if (label < 0 || label >= target.length) {
+            throw new IllegalArgumentException("Label " + label + " is out of " + target.length + " classes");
+        }
+        Arrays.fill(target, 0);
+        target[label] = 1;
+        labels[n] = label;
+    }
+
+    void reset(int epoch, int index, int size) {
+        if (size > labels.length) {
+            throw new IllegalArgumentException("Batch of " + size + " exceeds capacity " + labels.length);
+        }
+        this.epoch = epoch;
+        this.index = index;
+        this.size = size;
+    }
+}
@@ -0,0 +1,159 @@
+package edu.akatarin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Готовит пакеты обучения в фоновом потоке: перемешивает порядок примеров, копирует их в
+//предвыделенные Batch и применяет преобразования. Пока сеть обучается на одном пакете,
+//следующие queueDepth пакетов уже собираются, queueDepth = 1 - двойная буферизация.
+//Пакеты без остатка: в эпохе samples.size() / batchSize пакетов. samples не должен меняться во время работы.
+//Примеры читаются по одному прямо в буферы пакета, поэтому набор из SampleSource (например, MNISTDataset)
+//может быть больше кучи
+public final class BatchPipeline implements AutoCloseable {
+
+    //преобразование пакета в фоновом потоке перед обучением, например аугментация
+    @FunctionalInterface
+    public interface Transform {
+        void apply(Batch batch);
+    }
+
+    private static final Batch END = new Batch(0, 0, 0);
+
+    private final SampleSource samples;
+    private final int batchSize;
+    private final int epochs;
+    //свободные буферы и готовые пакеты; буферов queueDepth + 1, один из них у обучающего потока
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> ready;
+    private final List<Transform> transforms = new ArrayList<>();
+    private Random random = new Random();
+    private Thread producer;
+    private Batch current;
+    private boolean finished;
+    private volatile Throwable failure;
+
+    public BatchPipeline(List<Number> samples, int batchSize, int epochs, int queueDepth) {
+        this(SampleSource.of(samples), batchSize, epochs, queueDepth);
+    }
+
+    public BatchPipeline(SampleSource samples, int batchSize, int epochs, int queueDepth) {
+        if (samples.size() == 0 || batchSize <= 0 || queueDepth <= 0) {
+            throw new IllegalArgumentException("Empty samples, batch size " + batchSize + " or queue depth " + queueDepth);
+        }
+        this.samples = samples;
+        this.batchSize = batchSize;
+        this.epochs = epochs;
+        free = new ArrayBlockingQueue<>(queueDepth + 1);
+        ready = new ArrayBlockingQueue<>(queueDepth + 2);
+        for (int i = 0; i <= queueDepth; i++) {
+            free.add(new Batch(batchSize, samples.getPixelCount(), samples.getClassCount()));
+        }
+    }
+
+    //преобразования применяются по порядку добавления, задаются до первого next()
+    public BatchPipeline withTransform(Transform transform) {
+        checkNotStarted();
+        transforms.add(transform);
+        return this;
+    }
+
+    public BatchPipeline withRandom(Random random) {
+        checkNotStarted();
+        this.random = random;
+        return this;
+    }
+
+    public int getBatchCount() {
+        return samples.size() / batchSize;
+    }
+
+    //следующий пакет, null после последней эпохи. Возвращенный ранее пакет становится недействительным:
+    //его буфер уходит на заполнение
+    public Batch next() {
+        if (producer == null) {
+            producer = new Thread(this::produce, "batch-pipeline");
+            producer.setDaemon(true);
+            producer.start();
+        }
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+        Batch batch;
+        try {
+            batch = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            return null;
+        }
+        if (batch == END) {
+            finished = true;
+            if (failure != null) {
+                throw new IllegalStateException("Batch preparation failed", failure);
+            }
+            return null;
+        }
+        current = batch;
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        if (producer != null) {
+            producer.interrupt();
+        }
+    }
+
+    private void produce() {
+        int[] order = new int[samples.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        int batchCount = getBatchCount();
+        try {
+            for (int epoch = 1; epoch <= epochs; epoch++) {
+                shuffle(order);
+                for (int b = 0; b < batchCount; b++) {
+                    Batch batch = free.take();
+                    batch.reset(epoch, b, batchSize);
+                    for (int n = 0; n < batchSize; n++) {
+                        batch.set(n, samples, order[b * batchSize + n]);
+                    }
+                    for (Transform transform : transforms) {
+                        transform.apply(batch);
+                    }
+                    ready.put(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        ready.add(END);
+    }
+
+    //Fisher-Yates, как Collections.shuffle, но без изменения samples
+    private void shuffle(int[] order) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    private void checkNotStarted() {
+        if (producer != null) {
+            throw new IllegalStateException("Pipeline is already running");
+        }
+    }
+}
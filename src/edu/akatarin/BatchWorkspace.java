@@ -0,0 +1,81 @@
+package edu.akatarin;
+
+//Буферы пакетного обучения. Матрицы batch x size каждого слоя хранятся построчно:
+//значение i-го нейрона для s-го примера лежит в [s * size + i].
+//Пакет сети одинарной точности считается во float: значения, ошибки и градиенты весов лежат во float-буферах,
+//из double-буферов остаются только values[0], куда копируются входы, и строка выходного слоя для функции ошибки
+final class BatchWorkspace {
+    final int capacity;
+    //значения нейронов слоев (values[0] - входы сети)
+    final double[][] values;
+    //ошибки нейронов слоев, для входного слоя не нужны
+    final double[][] deltas;
+    //градиенты весов и смещений слоев, у выходного слоя весов нет
+    final double[][] weightGradients;
+    final double[][] biasGradients;
+    //буферы пакета во float, null у double-пакета
+    final float[][] floatValues;
+    final float[][] floatDeltas;
+    final float[][] floatWeightGradients;
+    //строка выходного слоя и градиент функции ошибки по ней
+    final double[] output;
+    final double[] costGradient;
+    //время прямого и обратного прохода по слоям с весами, копится при включенных TrainingMetrics
+    final long[] forwardNanos;
+    final long[] backwardNanos;
+    //байт, выделенных потоками, которые считали пакет в этом workspace
+    long allocatedBytes;
+
+    BatchWorkspace(NeuronLayer[] layers, int capacity) {
+        this(layers, capacity, true);
+    }
+
+    //withGradients = false - только значения и ошибки нейронов, для обучения с немедленным обновлением весов
+    BatchWorkspace(NeuronLayer[] layers, int capacity, boolean withGradients) {
+        this(layers, capacity, withGradients, Precision.DOUBLE);
+    }
+
+    //precision - точность, в которой считается пакет; FLOAT - только для сети одинарной точности
+    BatchWorkspace(NeuronLayer[] layers, int capacity, boolean withGradients, Precision precision) {
+        this.capacity = capacity;
+        int count = layers.length;
+        boolean single = precision == Precision.FLOAT;
+        values = new double[count][];
+        deltas = new double[count][];
+        weightGradients = new double[count - 1][];
+        biasGradients = new double[count - 1][];
+        floatValues = single ? new float[count][] : null;
+        floatDeltas = single ? new float[count][] : null;
+        floatWeightGradients = single ? new float[count - 1][] : null;
+        for (int k = 0; k < count; k++) {
+            NeuronLayer layer = layers[k];
+            int length = capacity * layer.getSize();
+            if (single) {
+                floatValues[k] = new float[length];
+            }
+            if (!single || k == 0) {
+                values[k] = new double[length];
+            }
+            if (k > 0) {
+                if (single) {
+                    floatDeltas[k] = new float[length];
+                } else {
+                    deltas[k] = new double[length];
+                }
+            }
+            if (withGradients && k < count - 1) {
+                if (single) {
+                    floatWeightGradients[k] = new float[layer.getSize() * layer.getNextSize()];
+                } else {
+                    weightGradients[k] = new double[layer.getSize() * layer.getNextSize()];
+                }
+                biasGradients[k] = new double[layer.getNextSize()];
+            }
+        }
+        int outputSize = layers[count - 1].getSize();
+        output = new double[outputSize];
+        costGradient = new double[outputSize];
+        forwardNanos = new long[count - 1];
+        backwardNanos = new long[count - 1];
+    }
+}
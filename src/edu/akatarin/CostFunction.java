@@ -1,19 +1,24 @@
 package edu.akatarin;
 
-import java.util.function.BinaryOperator;
 import java.util.function.ToDoubleBiFunction;
 
 public class CostFunction {
     private final String name;
     private final ToDoubleBiFunction<double[], double[]> function;
-    private final BinaryOperator<double[]> derivative;
+    private final Derivative derivative;
 
-    private CostFunction(String name, ToDoubleBiFunction<double[], double[]> function, BinaryOperator<double[]> derivative) {
+    private CostFunction(String name, ToDoubleBiFunction<double[], double[]> function, Derivative derivative) {
         this.name = name;
         this.function = function;
         this.derivative = derivative;
     }
 
+    //dFn(expected, actual, out) - пишет градиент в out
+    @FunctionalInterface
+    private interface Derivative {
+        void apply(double[] expected, double[] actual, double[] out);
+    }
+
     public String getName() {
         return name;
     }
@@ -23,7 +28,13 @@ public class CostFunction {
     }
 
     public double[] applyDerivative(double[] expected, double[] actual) {
-        return derivative.apply(expected, actual);
+        double[] result = new double[expected.length];
+        derivative.apply(expected, actual, result);
+        return result;
+    }
+
+    public void applyDerivative(double[] expected, double[] actual, double[] out) {
+        derivative.apply(expected, actual, out);
     }
 
     // Cost function: Mean square error, C = 1/n * ∑(exp - act)^2
@@ -36,12 +47,10 @@ public class CostFunction {
                 }
                 return (1.0 / expected.length) * temp;
             },
-            (expected, actual) -> {
-                double[] result = new double[expected.length];
+            (expected, actual, result) -> {
                 for (int i = 0; i < expected.length; i++) {
                     result[i] = (2.0 / expected.length) * (expected[i] - actual[i]);
                 }
-                return result;
             }
     );
     //Cost function: Quadratic, C = ∑(exp−act)^2
@@ -54,12 +63,10 @@ public class CostFunction {
                 }
                 return temp;
             },
-            (expected, actual) -> {
-                double[] result = new double[expected.length];
+            (expected, actual, result) -> {
                 for (int i = 0; i < expected.length; i++) {
                     result[i] = (expected[i] - actual[i]) * 2.0;
                 }
-                return result;
             }
     );
     //Cost function: HalfQuadratic, C = 0.5 ∑(exp-act)^2
@@ -72,12 +79,10 @@ public class CostFunction {
                 }
                 return temp * 0.5;
             },
-            (expected, actual) -> {
-                double[] result = new double[expected.length];
+            (expected, actual, result) -> {
                 for (int i = 0; i < expected.length; i++) {
                     result[i] = (expected[i] - actual[i]);
                 }
-                return result;
             }
     );
     //Cost function: CrossEntropy, C = -∑(exp*log(act))
@@ -90,12 +95,20 @@ public class CostFunction {
                 }
                 return temp;
             },
-            (expected, actual) -> {
-                double[] result = new double[expected.length];
+            (expected, actual, result) -> {
                 for (int i = 0; i < expected.length; i++) {
                     result[i] = actual[i] != 0 ? expected[i] / actual[i] : 0; //(expected[i] - actual[i]);
                 }
-                return result;
             }
     );
+
+    //функция ошибки по имени, см. getName
+    public static CostFunction valueOf(String name) {
+        for (CostFunction costFunction : new CostFunction[]{MSE, QUADRATIC, HALF_QUADRATIC, CROSS_ENTROPY}) {
+            if (costFunction.name.equals(name)) {
+                return costFunction;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cost function: " + name);
+    }
 }
@@ -0,0 +1,80 @@
+package edu.akatarin;
+
+//Результат оценки сети на наборе примеров, см. Evaluator.
+//Матрица ошибок confusion[actual][predicted] - сколько примеров класса actual сеть отнесла к классу predicted
+public final class Evaluation {
+    private final long[][] confusion;
+    private final long sampleCount;
+    private final double totalLoss;
+
+    Evaluation(long[][] confusion, long sampleCount, double totalLoss) {
+        this.confusion = confusion;
+        this.sampleCount = sampleCount;
+        this.totalLoss = totalLoss;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getClassCount() {
+        return confusion.length;
+    }
+
+    //доля верно распознанных примеров
+    public double getAccuracy() {
+        long correct = 0;
+        for (int c = 0; c < confusion.length; c++) {
+            correct += confusion[c][c];
+        }
+        return sampleCount == 0 ? 0 : (double) correct / sampleCount;
+    }
+
+    //средняя стоимость на пример по функции ошибки сети
+    public double getMeanLoss() {
+        return sampleCount == 0 ? 0 : totalLoss / sampleCount;
+    }
+
+    //доля верных среди примеров, отнесенных к классу c
+    public double getPrecision(int c) {
+        long predicted = 0;
+        for (long[] row : confusion) {
+            predicted += row[c];
+        }
+        return predicted == 0 ? 0 : (double) confusion[c][c] / predicted;
+    }
+
+    //доля распознанных среди примеров класса c
+    public double getRecall(int c) {
+        long actual = 0;
+        for (long count : confusion[c]) {
+            actual += count;
+        }
+        return actual == 0 ? 0 : (double) confusion[c][c] / actual;
+    }
+
+    //копия матрицы ошибок
+    public long[][] getConfusionMatrix() {
+        long[][] copy = new long[confusion.length][];
+        for (int c = 0; c < confusion.length; c++) {
+            copy[c] = confusion[c].clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Samples: %d, accuracy: %.4f, mean loss: %.6f%n",
+                sampleCount, getAccuracy(), getMeanLoss()));
+        report.append("class precision recall | confusion (rows - actual, columns - predicted)\n");
+        for (int c = 0; c < confusion.length; c++) {
+            report.append(String.format("%5d %9.4f %6.4f |", c, getPrecision(c), getRecall(c)));
+            for (long count : confusion[c]) {
+                report.append(String.format(" %5d", count));
+            }
+            report.append('\n');
+        }
+        return report.toString();
+    }
+}
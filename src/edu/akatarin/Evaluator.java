@@ -0,0 +1,83 @@
+package edu.akatarin;
+
+import edu.akatarin.math.LinearAlgebra;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+//Оценка сети на наборе примеров: точность, точность и полнота по классам, матрица ошибок и средняя стоимость.
+//Примеры проходят через сеть пакетами по CHUNK штук параллельно в пуле, состояние сети не меняется,
+//поэтому оценку можно запускать из нескольких потоков. Результаты пакетов складываются по порядку,
+//числа не зависят от количества потоков. Пиксели читаются по примеру прямо в буферы пакета, так что набор
+//из SampleSource (например, MNISTDataset) может быть больше кучи
+public final class Evaluator {
+    private static final int CHUNK = 256;
+
+    private Evaluator() {
+    }
+
+    public static Evaluation evaluate(NeuralNetwork network, List<Number> samples) {
+        return evaluate(network, samples, ForkJoinPool.commonPool());
+    }
+
+    public static Evaluation evaluate(NeuralNetwork network, List<Number> samples, ForkJoinPool pool) {
+        return evaluate(network, SampleSource.of(samples), pool);
+    }
+
+    public static Evaluation evaluate(NeuralNetwork network, SampleSource samples) {
+        return evaluate(network, samples, ForkJoinPool.commonPool());
+    }
+
+    public static Evaluation evaluate(NeuralNetwork network, SampleSource samples, ForkJoinPool pool) {
+        NeuronLayer[] layers = network.getLayers();
+        int inputSize = layers[0].getSize();
+        int classes = layers[layers.length - 1].getSize();
+        if (samples.getClassCount() > classes) {
+            throw new IllegalArgumentException("Samples have " + samples.getClassCount()
+                    + " classes, the network has " + classes + " outputs");
+        }
+        CostFunction costFunction = network.getCostFunction();
+        int chunkCount = (samples.size() + CHUNK - 1) / CHUNK;
+        int taskCount = Math.min(chunkCount, pool.getParallelism());
+        long[][][] chunkConfusion = new long[chunkCount][classes][classes];
+        double[] chunkLoss = new double[chunkCount];
+        if (taskCount > 0) {
+            NeuralNetwork.invokeAll(pool, taskCount, task -> {
+                //буферы на задачу, пакеты задачи идут через одну и ту же workspace
+                BatchWorkspace workspace = new BatchWorkspace(layers, CHUNK, false);
+                double[] output = workspace.output;
+                //ожидаемый выход примера: единица в позиции метки
+                double[] ideal = new double[classes];
+                for (int c = task; c < chunkCount; c += taskCount) {
+                    int from = c * CHUNK;
+                    int count = Math.min(CHUNK, samples.size() - from);
+                    for (int n = 0; n < count; n++) {
+                        samples.getPixels(from + n, workspace.values[0], n * inputSize);
+                    }
+                    double[] outputs = network.predictBatch(workspace, count);
+                    double loss = 0;
+                    for (int n = 0; n < count; n++) {
+                        int label = samples.getLabel(from + n);
+                        System.arraycopy(outputs, n * classes, output, 0, classes);
+                        ideal[label] = 1;
+                        loss += costFunction.apply(ideal, output);
+                        ideal[label] = 0;
+                        chunkConfusion[c][label][LinearAlgebra.argMax(output)]++;
+                    }
+                    chunkLoss[c] = loss;
+                }
+            });
+        }
+        long[][] confusion = new long[classes][classes];
+        double totalLoss = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            for (int actual = 0; actual < classes; actual++) {
+                for (int predicted = 0; predicted < classes; predicted++) {
+                    confusion[actual][predicted] += chunkConfusion[c][actual][predicted];
+                }
+            }
+            totalLoss += chunkLoss[c];
+        }
+        return new Evaluation(confusion, samples.size(), totalLoss);
+    }
+}
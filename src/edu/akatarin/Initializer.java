@@ -1,35 +1,38 @@
 package edu.akatarin;
 
 import java.util.Random;
-import java.util.function.UnaryOperator;
 
 public class Initializer {
     private final String name;
-    private final UnaryOperator<double[][]> initializer;
+    private final WeightsInitializer initializer;
 
     private static final Random random = new Random();
 
-    private Initializer(String name, UnaryOperator<double[][]> initializer) {
+    private Initializer(String name, WeightsInitializer initializer) {
         this.name = name;
         this.initializer = initializer;
     }
 
-    public double[][] initWeights(double[][] weights) {
-        return initializer.apply(weights);
+    //weights - матрица rows x cols, хранится построчно в одном массиве
+    public double[] initWeights(double[] weights, int rows, int cols) {
+        return initializer.init(weights, rows, cols);
     }
 
     public String getName() {
         return name;
     }
 
+    @FunctionalInterface
+    private interface WeightsInitializer {
+        double[] init(double[] weights, int rows, int cols);
+    }
+
     //по умолчанию
     public static Initializer RANDOM_GAUSSIAN = new Initializer(
             "RANDOM_GAUSSIAN",
-            (weights) -> {
+            (weights, rows, cols) -> {
                 for (int i = 0; i < weights.length; i++) {
-                    for (int j = 0; j < weights[0].length; j++) {
-                        weights[i][j] = random.nextGaussian();
-                    }
+                    weights[i] = random.nextGaussian();
                 }
                 return weights;
             }
@@ -37,12 +40,10 @@ public class Initializer {
 
     public static Initializer XAVIER_UNIFORM = new Initializer(
             "XAVIER_UNIFORM",
-            (weights) -> {
-                double factor = Math.sqrt(6.0 / (weights.length + weights[0].length));
+            (weights, rows, cols) -> {
+                double factor = Math.sqrt(6.0 / (rows + cols));
                 for (int i = 0; i < weights.length; i++) {
-                    for (int j = 0; j < weights[0].length; j++) {
-                        weights[i][j] = ((random.nextDouble() * 2)-1) * factor;
-                    }
+                    weights[i] = ((random.nextDouble() * 2)-1) * factor;
                 }
                 return weights;
             }
@@ -50,12 +51,10 @@ public class Initializer {
 
     public static Initializer XAVIER_NORMAL = new Initializer(
             "XAVIER_NORMAL",
-            (weights) -> {
-                double factor = Math.sqrt(2.0 / (weights.length + weights[0].length));
+            (weights, rows, cols) -> {
+                double factor = Math.sqrt(2.0 / (rows + cols));
                 for (int i = 0; i < weights.length; i++) {
-                    for (int j = 0; j < weights[0].length; j++) {
-                        weights[i][j] = random.nextGaussian() * factor;
-                    }
+                    weights[i] = random.nextGaussian() * factor;
                 }
                 return weights;
             }
@@ -63,18 +62,16 @@ public class Initializer {
 
     public static Initializer MANUAL = new Initializer(
             "MANUAL",
-            (weights) -> weights
+            (weights, rows, cols) -> weights
     );
 
     //ReLU Leaky_ReLU
     public static Initializer HE_NORMAL = new Initializer(
             "HE_NORMAL",
-            (weights) -> {
-                double factor = Math.sqrt(2.0 / weights.length);
+            (weights, rows, cols) -> {
+                double factor = Math.sqrt(2.0 / rows);
                 for (int i = 0; i < weights.length; i++) {
-                    for (int j = 0; j < weights[0].length; j++) {
-                        weights[i][j] = random.nextGaussian() * factor;
-                    }
+                    weights[i] = random.nextGaussian() * factor;
                 }
                 return weights;
             }
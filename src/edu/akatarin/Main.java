@@ -1,14 +1,22 @@
 package edu.akatarin;
 
+import edu.akatarin.inference.InferenceNetwork;
+import edu.akatarin.inference.InferenceReport;
+import edu.akatarin.inference.LowRank;
+import edu.akatarin.inference.Pruning;
+import edu.akatarin.math.LinearAlgebra;
+import edu.akatarin.util.MNISTDataset;
 import edu.akatarin.util.MNISTLoader;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
-    private static List<Number> numbers;
+    //обучающий набор читается из отображенного в память кэша по примеру, в кучу целиком не копируется
+    private static MNISTDataset train;
     private static final double[][] numbersToTrain = {
             {0, 0, 0, 0}, //0
             {0, 0, 0, 1}, //1
@@ -38,7 +46,7 @@ public class Main {
     private final static int EPOCH_LIMIT = 10_000;
 
     private static void testMNISTStochasticGD() {
-        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL).withSparseInputs();
         NeuralNetwork neuralNetwork = NeuralNetworkBuilder.neuralNetworkBuilder()
                 .withInputLayer(input)
                 .addHiddenLayer(new NeuronLayer(800, 10, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
@@ -47,6 +55,7 @@ public class Main {
         neuralNetwork.setCostFunction(CostFunction.CROSS_ENTROPY);
         neuralNetwork.setOptimizer(new Optimizer.GradientDescent(0.01));
         neuralNetwork.setMomentum(0.7);
+        List<Number> numbers = train.toCompactNumbers();
         Collections.shuffle(numbers);
         for (int i = 0; i < 3; i++) {
             int epoch = 0;
@@ -65,7 +74,7 @@ public class Main {
     }
 
     private static void trainMiniBatchGD(int batchSize) {
-        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL).withSparseInputs();
         NeuralNetwork neuralNetwork = NeuralNetworkBuilder.neuralNetworkBuilder()
                 .withInputLayer(input)
                 .addHiddenLayer(new NeuronLayer(800, 10, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
@@ -74,51 +83,106 @@ public class Main {
         neuralNetwork.setCostFunction(CostFunction.CROSS_ENTROPY);
         neuralNetwork.setOptimizer(new Optimizer.GradientDescent(0.5));
         neuralNetwork.setMomentum(0.7);
+        neuralNetwork.setTrainingPool(ForkJoinPool.commonPool());
 
-        int batchCount = numbers.size() / batchSize;
-        double[][] expectedOutputs = new double[batchSize][10];
-        int epoch = 0;
-        double batchError;
-        do {
-            Collections.shuffle(numbers);
-            epoch++;
-            for (int i = 0; i < batchCount; i++) {
-                int fromIndex = i * batchSize;
-                int toIndex = Math.min(numbers.size(), (i + 1) * batchSize);
-                List<Number> batch = numbers.subList(fromIndex, toIndex);
-                for (int j = 0; j < batchSize; j++) {
-                    expectedOutputs[j] = ideals[batch.get(j).getValue()];
+        //ход обучения смотрим по JMX (edu.akatarin:type=TrainingMetrics), в цикле вывода нет
+        TrainingMetrics metrics = new TrainingMetrics(neuralNetwork);
+        neuralNetwork.setMetrics(metrics);
+        metrics.register("mnist");
+        //пакеты собираются в фоне, пока сеть обучается на предыдущем
+        try (BatchPipeline pipeline = new BatchPipeline(train, batchSize, 4, 2)) {
+            int batchCount = pipeline.getBatchCount();
+            Batch batch;
+            while ((batch = pipeline.next()) != null) {
+                neuralNetwork.trainBatch(batch);
+                if (batch.getIndex() == batchCount - 1) {
+                    System.out.println("Epoch: " + batch.getEpoch() + " " + metrics);
                 }
-                double totalBatchError = neuralNetwork.trainBatch(batch.toArray(new Number[batchSize]), expectedOutputs);
-                batchError = totalBatchError / batchSize;
-                System.out.print("\rEpoch: " + epoch + " Batch: " + i + " of " + batchCount + " ERROR: " + totalBatchError + " AVG ERR: " + batchError);
             }
-        } while ( epoch <= 3);
+        } finally {
+            metrics.unregister();
+        }
         testMNISTNumberRecognition(neuralNetwork);
+        List<Number> testNumbers = MNISTLoader.importData("data/t10k");
+        //та же сеть с весами int8 для вывода
+        InferenceReport.printQuantizationReport(neuralNetwork, testNumbers);
+        //с первым слоем в виде произведения двух узких матриц наименьшего ранга, при котором точность
+        //на первой половине t10k падает не больше чем на 0.5%; проверка на второй половине
+        List<Number> validation = testNumbers.subList(0, testNumbers.size() / 2);
+        System.out.println(InferenceReport.compare("low rank, 0.5% budget", neuralNetwork,
+                LowRank.compress(neuralNetwork, 0, validation, 0.005),
+                testNumbers.subList(testNumbers.size() / 2, testNumbers.size())));
+        //и после обрезки 90% блоков 4x8 первого слоя с дообучением за 3 эпохи, первый слой в блочном CSR
+        InferenceNetwork reference = InferenceNetwork.dense(neuralNetwork);
+        Pruning.prune(neuralNetwork, 0, 0.9, 4, 8, train, batchSize, 3);
+        System.out.println(InferenceReport.compare("CSR 4x8, 90% pruned", reference,
+                InferenceNetwork.sparse(neuralNetwork, 4, 8), testNumbers));
     }
 
-    private static void testMNISTNumberRecognition(NeuralNetwork nn) {
-        double overall = 0;
-        Random random = new Random();
-        for (int i = 0; i < 100; i++) {
-            Number testNumber = numbers.get(random.nextInt(numbers.size()));
-            double[] expected = ideals[testNumber.getValue()];
-            nn.feedForward(testNumber);
-            double[] output = nn.getOutput();
-            double max = Arrays.stream(output).max().orElse(Double.MIN_VALUE);
-            boolean passed = false;
-            for (int j = 0; j < output.length; j++) {
-                if (max == output[j]) {
-                    if (testNumber.getValue() == j) {
-                        passed = true;
-                        overall++;
-                    }
-                    break;
-                }
-            }
-            System.out.println("Test : " + testNumber.getValue() + " " + passed + " LOSS: " + nn.getCost(expected));
+    //сравнение обычного стохастического спуска и Hogwild на threads потоках:
+    //одна эпоха на одинаково инициализированных сетях, время, средняя стоимость и точность на t10k
+    private static void compareHogwildSGD(int threads) {
+        //Hogwild раздает потокам массив примеров, поэтому набор копируется в кучу
+        List<Number> numbers = train.toCompactNumbers();
+        Collections.shuffle(numbers);
+        Number[] samples = numbers.toArray(new Number[0]);
+        double[][] expected = new double[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            expected[i] = ideals[samples[i].getValue()];
         }
-        System.out.println("Overall score: " + overall / 100.0);
+        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL).withSparseInputs();
+        NeuronLayer hidden = new NeuronLayer(800, 10, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        double[] initialInputWeights = input.getWeights().clone();
+        double[] initialHiddenWeights = hidden.getWeights().clone();
+        NeuralNetwork sequential = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(input)
+                .addHiddenLayer(hidden)
+                .withOutputLayer(new NeuronLayer(10, 0, Activation.Softmax))
+                .build();
+        NeuronLayer hogwildInput = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.MANUAL).withSparseInputs();
+        hogwildInput.setWeights(initialInputWeights);
+        NeuronLayer hogwildHidden = new NeuronLayer(800, 10, Activation.Sigmoid, Initializer.MANUAL);
+        hogwildHidden.setWeights(initialHiddenWeights);
+        NeuralNetwork hogwild = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(hogwildInput)
+                .addHiddenLayer(hogwildHidden)
+                .withOutputLayer(new NeuronLayer(10, 0, Activation.Softmax))
+                .build();
+        for (NeuralNetwork nn : new NeuralNetwork[]{sequential, hogwild}) {
+            nn.setCostFunction(CostFunction.CROSS_ENTROPY);
+            nn.setOptimizer(new Optimizer.GradientDescent(0.01));
+            nn.setMomentum(0);
+        }
+
+        long start = System.nanoTime();
+        double sequentialCost = 0;
+        for (int i = 0; i < samples.length; i++) {
+            sequential.feedForward(samples[i]);
+            sequentialCost += sequential.getCost(expected[i]);
+            sequential.backpropagation(expected[i]);
+        }
+        double sequentialTime = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        double hogwildCost = hogwild.trainHogwild(samples, expected, threads);
+        double hogwildTime = (System.nanoTime() - start) / 1e9;
+
+        MNISTDataset testNumbers = MNISTLoader.openDataset("data/t10k");
+        System.out.printf("SGD:              %.1f s, %.0f samples/s, AVG COST: %.4f, accuracy: %.4f%n",
+                sequentialTime, samples.length / sequentialTime, sequentialCost / samples.length,
+                Evaluator.evaluate(sequential, testNumbers).getAccuracy());
+        System.out.printf("Hogwild (%d thr): %.1f s, %.0f samples/s, AVG COST: %.4f, accuracy: %.4f%n",
+                threads, hogwildTime, samples.length / hogwildTime, hogwildCost / samples.length,
+                Evaluator.evaluate(hogwild, testNumbers).getAccuracy());
+    }
+
+    //оценка на всем тестовом наборе t10k
+    private static void testMNISTNumberRecognition(NeuralNetwork nn) {
+        MNISTDataset testNumbers = MNISTLoader.openDataset("data/t10k");
+        long start = System.nanoTime();
+        Evaluation evaluation = Evaluator.evaluate(nn, testNumbers);
+        System.out.printf("%nEvaluated in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        System.out.print(evaluation);
     }
 
     //Тест на основе алгоритма https://mattmazur.com/2015/03/17/a-step-by-step-backpropagation-example/
@@ -297,7 +361,9 @@ public class Main {
         System.out.println("Overall score: " + overall / numbersToTrain.length);
     }
 
+    //ядра LinearAlgebra сверяются с наивными циклами в тестах core (mvn test)
     public static void main(String[] args) {
+        System.out.println("Vector API: " + LinearAlgebra.isVectorized());
         System.out.println("Test 1");
         testNetworkStepByStep();
         System.out.println("Test 2");
@@ -305,10 +371,12 @@ public class Main {
         System.out.println("Test 3");
         testNetworkBatch();
 
-        numbers = MNISTLoader.importData("data/train");
+        train = MNISTLoader.openDataset("data/train");
        // System.out.println("Test MNIST 1");
         //testMNISTStochasticGD();
         System.out.println("Test MNIST 2");
         trainMiniBatchGD(256);
+        System.out.println("Test MNIST 3");
+        compareHogwildSGD(Runtime.getRuntime().availableProcessors());
     }
 }
@@ -1,163 +1,609 @@
 package edu.akatarin;
 
+import edu.akatarin.math.LinearAlgebra;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 public class NeuralNetwork {
     private CostFunction costFunction = CostFunction.MSE;//default
     private Optimizer optimizer = new Optimizer.GradientDescent(0.5);
     private double momentum = 0.5;
+    //Softmax на выходе вместе с CrossEntropy: ошибка выходного слоя считается сразу, см. softmaxCrossEntropyDeltas
+    private boolean softmaxCrossEntropy;
 
     private final NeuronLayer inputLayer;
     private final NeuronLayer[] hiddenLayers;
     private final NeuronLayer outputLayer;
+    //все слои по порядку: входной, скрытые, выходной
+    private final NeuronLayer[] layers;
+    private BatchWorkspace batchWorkspace;
+    //размер части пакета для одного потока и отрезка при сложении градиентов
+    private static final int PARALLEL_CHUNK = 32;
+    private static final int REDUCE_BLOCK = 1 << 16;
+    private ForkJoinPool trainingPool;
+    private BatchWorkspace[] chunkWorkspaces;
+    private double[] chunkErrors;
+    private TrainingMetrics metrics;
+    private final ThreadLocal<PredictionWorkspace> predictionWorkspace =
+            ThreadLocal.withInitial(this::newPredictionWorkspace);
 
     public NeuralNetwork(NeuronLayer inputLayer, NeuronLayer[] hiddenLayers, NeuronLayer outputLayer) {
         this.inputLayer = inputLayer;
         this.hiddenLayers = hiddenLayers;
         this.outputLayer = outputLayer;
+        layers = new NeuronLayer[hiddenLayers.length + 2];
+        layers[0] = inputLayer;
+        System.arraycopy(hiddenLayers, 0, layers, 1, hiddenLayers.length);
+        layers[layers.length - 1] = outputLayer;
     }
 
     public void setCostFunction(CostFunction costFunction) {
         this.costFunction = costFunction;
+        softmaxCrossEntropy = costFunction == CostFunction.CROSS_ENTROPY
+                && outputLayer.getActivation() == Activation.Softmax;
+    }
+
+    public CostFunction getCostFunction() {
+        return costFunction;
+    }
+
+    //слои по порядку: входной, скрытые, выходной
+    public NeuronLayer[] getLayers() {
+        return layers.clone();
     }
 
     public void setOptimizer(Optimizer optimizer) {
         this.optimizer = optimizer;
     }
 
+    //момент для Optimizer.GradientDescent, остальные оптимизаторы его не используют
     public void setMomentum(double momentum) {
         this.momentum = momentum;
     }
 
+    //параллельное обучение пакетами в пуле pool, null - в вызывающем потоке
+    public void setTrainingPool(ForkJoinPool pool) {
+        this.trainingPool = pool;
+    }
+
+    //метрики обучения пакетами, null - не собираются
+    public void setMetrics(TrainingMetrics metrics) {
+        if (metrics != null && metrics.getLayerCount() != layers.length - 1) {
+            throw new IllegalArgumentException("Metrics are created for another network");
+        }
+        this.metrics = metrics;
+    }
+
+    public TrainingMetrics getMetrics() {
+        return metrics;
+    }
+
     //Batch Gradient Descent
     //обновляем веса входного и скрытого слоев на сумму DeltaW всех весов в пакете.
+    //весь пакет проходит через сеть как матрица batch x size, веса читаются один раз на пакет
     public double trainBatch(Number[] numbers, double[][] expectedOut) {
-        double totalBatchError = 0;
-        for (int n = 0; n < numbers.length; n++) {
-            Number number = numbers[n];
-            feedForward(number);
-            totalBatchError += getCost(expectedOut[n]);
-            double[] expected = expectedOut[n];
-            calcOutputLayerError(expected); //ошибка выходного слоя
-            //распространяем ошибку на скрытые слои
-            NeuronLayer lastHiddenLayer = hiddenLayers[hiddenLayers.length - 1];
-            calcHiddenLayerError(lastHiddenLayer, outputLayer);
-            if (hiddenLayers.length > 1) {
-                int hiddenLayersToPropagate = hiddenLayers.length - 2;
-                for (int i = hiddenLayersToPropagate; i >= 0; i--) {
-                    NeuronLayer currentHiddenLayer = hiddenLayers[i];
-                    NeuronLayer previousHiddenLayer = hiddenLayers[i + 1];
-                    calcHiddenLayerError(currentHiddenLayer, previousHiddenLayer);
-                }
+        int inputSize = inputLayer.getSize();
+        return trainBatch(numbers.length, (from, count, inputs) -> {
+            for (int n = 0; n < count; n++) {
+                numbers[from + n].copyPixels(inputs, n * inputSize);
             }
+        }, expectedOut);
+    }
 
-            //подсчитаем градиент изменения весов скрытого слоя
-            NeuronLayer firstHiddenLayer = hiddenLayers[0];
-            calcWeightsAndBiasesGradient(inputLayer, firstHiddenLayer);
-            if (hiddenLayers.length > 1) {
-                int hiddenLayersToUpdate = hiddenLayers.length - 2;
-                for (int i = 0; i <= hiddenLayersToUpdate; i++) {
-                    NeuronLayer currentHiddenLayer = hiddenLayers[i];
-                    NeuronLayer nextHiddenLayer = hiddenLayers[i + 1];
-                    calcWeightsAndBiasesGradient(currentHiddenLayer, nextHiddenLayer);
+    //пакет, заранее собранный в матрицы входов и ожидаемых выходов, например BatchPipeline
+    public double trainBatch(Batch batch) {
+        int inputSize = inputLayer.getSize();
+        double[] batchInputs = batch.getInputs();
+        return trainBatch(batch.size(), (from, count, inputs) ->
+                System.arraycopy(batchInputs, from * inputSize, inputs, 0, count * inputSize), batch.getTargets());
+    }
+
+    //пишет входы примеров [from, from + count) пакета в строки inputs
+    @FunctionalInterface
+    private interface BatchInputs {
+        void copy(int from, int count, double[] inputs);
+    }
+
+    private double trainBatch(int batchSize, BatchInputs batchInputs, double[][] expectedOut) {
+        TrainingMetrics metrics = this.metrics;
+        boolean withNorms = metrics != null && metrics.beginBatch();
+        double totalBatchError;
+        BatchWorkspace workspace;
+        long gradientStart = metrics != null ? System.nanoTime() : 0;
+        if (trainingPool == null) {
+            workspace = getBatchWorkspace(batchSize);
+            totalBatchError = calcBatchGradient(workspace, batchInputs, expectedOut, 0, batchSize);
+        } else {
+            totalBatchError = calcBatchGradientParallel(batchSize, batchInputs, expectedOut);
+            workspace = chunkWorkspaces[0];
+        }
+        long updateAllocationStart = 0;
+        if (metrics != null) {
+            metrics.addGradientTime(System.nanoTime() - gradientStart);
+            updateAllocationStart = TrainingMetrics.allocatedBytes();
+        }
+        //обновим веса каждого слоя по градиентам пакета
+        for (int k = 0; k < layers.length - 1; k++) {
+            long start = metrics != null ? System.nanoTime() : 0;
+            if (workspace.weightGradients[k] != null) {
+                layers[k].saveWeightGradient(workspace.weightGradients[k], batchSize);
+                layers[k].saveBiasGradient(workspace.biasGradients[k], batchSize);
+            } else if (workspace.floatWeightGradients != null && workspace.floatWeightGradients[k] != null) {
+                layers[k].saveWeightGradient(workspace.floatWeightGradients[k], batchSize);
+                layers[k].saveBiasGradient(workspace.biasGradients[k], batchSize);
+            }
+            double gradientNorm = withNorms ? layers[k].getGradientNorm() / batchSize : 0;
+            layers[k].update(optimizer, momentum);
+            if (metrics != null) {
+                metrics.addUpdateTime(k, System.nanoTime() - start);
+            }
+            if (withNorms) {
+                metrics.setNorms(k, gradientNorm, layers[k].getWeightNorm());
+            }
+        }
+        if (metrics != null) {
+            metrics.addAllocatedBytes(TrainingMetrics.allocatedBytes() - updateAllocationStart);
+            if (trainingPool == null) {
+                collectTimes(metrics, workspace);
+            } else {
+                for (BatchWorkspace chunkWorkspace : chunkWorkspaces) {
+                    collectTimes(metrics, chunkWorkspace);
                 }
             }
-            calcWeightsAndBiasesGradient(lastHiddenLayer, outputLayer);
+            metrics.endBatch(batchSize, totalBatchError);
         }
-        //обновим веса
-        updateAllWeightsAndBiases();
         return totalBatchError;
     }
 
+    //переносит время проходов и выделенную память из workspace в метрики
+    private static void collectTimes(TrainingMetrics metrics, BatchWorkspace workspace) {
+        for (int k = 0; k < workspace.forwardNanos.length; k++) {
+            metrics.addForwardTime(k, workspace.forwardNanos[k]);
+            metrics.addBackwardTime(k, workspace.backwardNanos[k]);
+        }
+        metrics.addAllocatedBytes(workspace.allocatedBytes);
+        Arrays.fill(workspace.forwardNanos, 0);
+        Arrays.fill(workspace.backwardNanos, 0);
+        workspace.allocatedBytes = 0;
+    }
+
+    //градиент пакета копится прямо в слоях (при одинарной точности - во float-градиентах), буферы градиентов не нужны
+    private BatchWorkspace getBatchWorkspace(int batchSize) {
+        if (batchWorkspace == null || batchWorkspace.capacity < batchSize) {
+            batchWorkspace = newTrainingWorkspace(batchSize, false);
+        }
+        return batchWorkspace;
+    }
+
+    //буферы обучения пакетами: у сети одинарной точности пакет считается во float
+    private BatchWorkspace newTrainingWorkspace(int capacity, boolean withGradients) {
+        return new BatchWorkspace(layers, capacity, withGradients, inputLayer.getPrecision());
+    }
+
+    //прямой и обратный проход примеров [from, from + count) пакета, возвращает суммарную стоимость.
+    //градиенты весов и смещений суммируются в workspace, а если в нем нет буферов градиентов - сразу в слоях
+    private double calcBatchGradient(BatchWorkspace workspace, BatchInputs batchInputs, double[][] expectedOut,
+                                     int from, int count) {
+        //выделение памяти считается на том потоке, который считает эту часть пакета
+        boolean timed = metrics != null;
+        long allocationStart = timed ? TrainingMetrics.allocatedBytes() : 0;
+        batchInputs.copy(from, count, workspace.values[0]);
+        if (workspace.floatValues != null) {
+            double[] inputs = workspace.values[0];
+            float[] floatInputs = workspace.floatValues[0];
+            for (int i = 0; i < count * inputLayer.getSize(); i++) {
+                floatInputs[i] = (float) inputs[i];
+            }
+        }
+        feedForward(workspace, count);
+        //время ошибок слоя k + 1 и градиента весов слоя k относится к обратному проходу слоя k
+        int last = layers.length - 1;
+        long start = timed ? System.nanoTime() : 0;
+        double totalError = calcOutputLayerError(workspace, expectedOut, from, count); //ошибка выходного слоя
+        if (timed) {
+            workspace.backwardNanos[last - 1] += System.nanoTime() - start;
+        }
+        //распространяем ошибку на скрытые слои
+        for (int k = last - 1; k > 0; k--) {
+            start = timed ? System.nanoTime() : 0;
+            calcHiddenLayerError(workspace, k, count);
+            if (timed) {
+                workspace.backwardNanos[k - 1] += System.nanoTime() - start;
+            }
+        }
+        //подсчитаем градиент весов всех слоев
+        for (int k = 0; k < last; k++) {
+            start = timed ? System.nanoTime() : 0;
+            if (workspace.floatValues != null) {
+                addFloatGradient(workspace, k, count);
+            } else if (workspace.weightGradients[k] == null) {
+                layers[k].addGradient(workspace.values[k], workspace.deltas[k + 1], count);
+            } else {
+                layers[k].calculateGradient(workspace.values[k], workspace.deltas[k + 1], count,
+                        workspace.weightGradients[k], workspace.biasGradients[k]);
+            }
+            if (timed) {
+                workspace.backwardNanos[k] += System.nanoTime() - start;
+            }
+        }
+        if (timed) {
+            workspace.allocatedBytes += TrainingMetrics.allocatedBytes() - allocationStart;
+        }
+        return totalError;
+    }
+
+    private void addFloatGradient(BatchWorkspace workspace, int k, int count) {
+        if (workspace.floatWeightGradients[k] == null) {
+            layers[k].addGradient(workspace.floatValues[k], workspace.floatDeltas[k + 1], count);
+        } else {
+            layers[k].calculateGradient(workspace.floatValues[k], workspace.floatDeltas[k + 1], count,
+                    workspace.floatWeightGradients[k], workspace.biasGradients[k]);
+        }
+    }
+
+    //пакет делится на части по PARALLEL_CHUNK примеров, каждая считается в своем workspace.
+    //градиенты частей складываются всегда в одном порядке, поэтому результат не зависит от числа потоков.
+    //сумма оказывается в chunkWorkspaces[0]
+    private double calcBatchGradientParallel(int batchSize, BatchInputs batchInputs, double[][] expectedOut) {
+        int chunkCount = (batchSize + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        if (chunkWorkspaces == null || chunkWorkspaces.length < chunkCount) {
+            BatchWorkspace[] workspaces = new BatchWorkspace[chunkCount];
+            for (int c = 0; c < chunkCount; c++) {
+                workspaces[c] = chunkWorkspaces != null && c < chunkWorkspaces.length
+                        ? chunkWorkspaces[c]
+                        : newTrainingWorkspace(PARALLEL_CHUNK, true);
+            }
+            chunkWorkspaces = workspaces;
+            chunkErrors = new double[chunkCount];
+        }
+        invokeAll(chunkCount, c -> {
+            int from = c * PARALLEL_CHUNK;
+            int count = Math.min(PARALLEL_CHUNK, batchSize - from);
+            chunkErrors[c] = calcBatchGradient(chunkWorkspaces[c], batchInputs, expectedOut, from, count);
+        });
+        //складываем градиенты частей отрезками по REDUCE_BLOCK элементов
+        BatchWorkspace total = chunkWorkspaces[0];
+        for (int k = 0; k < layers.length - 1; k++) {
+            int layer = k;
+            boolean single = total.floatWeightGradients != null;
+            int length = single ? total.floatWeightGradients[k].length : total.weightGradients[k].length;
+            invokeAll((length + REDUCE_BLOCK - 1) / REDUCE_BLOCK, block -> {
+                int from = block * REDUCE_BLOCK;
+                int count = Math.min(REDUCE_BLOCK, length - from);
+                for (int c = 1; c < chunkCount; c++) {
+                    if (single) {
+                        LinearAlgebra.axpy(1f, chunkWorkspaces[c].floatWeightGradients[layer], from,
+                                total.floatWeightGradients[layer], from, count);
+                    } else {
+                        LinearAlgebra.axpy(1.0, chunkWorkspaces[c].weightGradients[layer], from,
+                                total.weightGradients[layer], from, count);
+                    }
+                }
+            });
+            for (int c = 1; c < chunkCount; c++) {
+                double[] biasGradient = total.biasGradients[k];
+                LinearAlgebra.axpy(1.0, chunkWorkspaces[c].biasGradients[k], 0, biasGradient, 0, biasGradient.length);
+            }
+        }
+        double totalError = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            totalError += chunkErrors[c];
+        }
+        return totalError;
+    }
+
+    //Hogwild: threads потоков обучают сеть на своих частях numbers без блокировок,
+    //изменения каждого примера сразу пишутся в общие веса. Шаг - learningRate оптимизатора,
+    //состояние оптимизатора, momentum и L2 в этом режиме не применяются.
+    //потоки берутся из trainingPool, если он задан, иначе из общего пула, потоков не больше, чем примеров.
+    //Возвращает суммарную стоимость
+    public double trainHogwild(Number[] numbers, double[][] expectedOut, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        threads = Math.min(threads, numbers.length);
+        if (threads == 0) {
+            return 0;
+        }
+        ForkJoinPool pool = trainingPool != null ? trainingPool : ForkJoinPool.commonPool();
+        double[] shardErrors = new double[threads];
+        int shardSize = (numbers.length + threads - 1) / threads;
+        invokeAll(pool, threads, shard -> {
+            BatchWorkspace workspace = new BatchWorkspace(layers, 1, false);
+            int from = shard * shardSize;
+            int to = Math.min(numbers.length, from + shardSize);
+            double totalError = 0;
+            for (int n = from; n < to; n++) {
+                totalError += trainHogwildSample(workspace, numbers[n], expectedOut, n);
+            }
+            shardErrors[shard] = totalError;
+        });
+        double totalError = 0;
+        for (double shardError : shardErrors) {
+            totalError += shardError;
+        }
+        return totalError;
+    }
+
+    private double trainHogwildSample(BatchWorkspace workspace, Number number, double[][] expectedOut, int index) {
+        number.copyPixels(workspace.values[0], 0);
+        feedForward(workspace, 1);
+        double error = calcOutputLayerError(workspace, expectedOut, index, 1);
+        for (int k = layers.length - 2; k > 0; k--) {
+            calcHiddenLayerError(workspace, k, 1);
+        }
+        for (int k = 0; k < layers.length - 1; k++) {
+            //learningRate применяется к ошибкам нейронов, а не к каждому весу
+            double[] deltas = workspace.deltas[k + 1];
+            double learningRate = optimizer.getLearningRate();
+            for (int j = 0; j < deltas.length; j++) {
+                deltas[j] = learningRate * deltas[j];
+            }
+            layers[k].addToWeightsAndBiases(workspace.values[k], deltas);
+        }
+        return error;
+    }
+
+    private void invokeAll(int count, IntConsumer task) {
+        invokeAll(trainingPool, count, task);
+    }
+
+    //выполняет task(0..count-1) в pool и ждет завершения всех задач
+    static void invokeAll(ForkJoinPool pool, int count, IntConsumer task) {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            tasks[i] = ForkJoinTask.adapt(() -> task.accept(index));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    //прямой проход пакета без изменения состояния сети, входы уже записаны в workspace.values[0].
+    //возвращает значения выходного слоя - матрицу batchSize x outputSize из workspace
+    double[] predictBatch(BatchWorkspace workspace, int batchSize) {
+        feedForward(workspace, batchSize);
+        return workspace.values[layers.length - 1];
+    }
+
+    private void feedForward(BatchWorkspace workspace, int batchSize) {
+        boolean timed = metrics != null;
+        for (int k = 0; k < layers.length - 1; k++) {
+            long start = timed ? System.nanoTime() : 0;
+            NeuronLayer nextLayer = layers[k + 1];
+            int size = nextLayer.getSize();
+            if (workspace.floatValues != null) {
+                float[] values = workspace.floatValues[k + 1];
+                layers[k].calculateNetOutput(workspace.floatValues[k], values, batchSize);
+                for (int n = 0; n < batchSize; n++) {
+                    nextLayer.getActivation().apply(values, values, n * size, (n + 1) * size);
+                }
+            } else {
+                double[] values = workspace.values[k + 1];
+                layers[k].calculateNetOutput(workspace.values[k], values, batchSize);
+                for (int n = 0; n < batchSize; n++) {
+                    nextLayer.getActivation().apply(values, values, n * size, (n + 1) * size);
+                }
+            }
+            if (timed) {
+                workspace.forwardNanos[k] += System.nanoTime() - start;
+            }
+        }
+    }
+
+    //ошибка выходного слоя для каждого примера пакета, возвращает суммарную стоимость
+    private double calcOutputLayerError(BatchWorkspace workspace, double[][] expectedOut, int offset, int batchSize) {
+        if (workspace.floatValues != null) {
+            return calcFloatOutputLayerError(workspace, expectedOut, offset, batchSize);
+        }
+        int size = outputLayer.getSize();
+        double[] values = workspace.values[layers.length - 1];
+        double[] deltas = workspace.deltas[layers.length - 1];
+        double totalError = 0;
+        for (int n = 0; n < batchSize; n++) {
+            int from = n * size;
+            double[] expected = expectedOut[offset + n];
+            System.arraycopy(values, from, workspace.output, 0, size);
+            totalError += costFunction.apply(expected, workspace.output);
+            if (softmaxCrossEntropy) {
+                softmaxCrossEntropyDeltas(expected, values, deltas, from, size);
+                continue;
+            }
+            costFunction.applyDerivative(expected, workspace.output, workspace.costGradient);
+            System.arraycopy(workspace.costGradient, 0, deltas, from, size);
+            outputLayer.getActivation().applyDerivative(values, deltas, deltas, from, from + size);
+        }
+        return totalError;
+    }
+
+    //то же для пакета во float: строка выходного слоя (десяток чисел) переводится в double,
+    //стоимость и ошибки считаются в double, ошибки округляются до float
+    private double calcFloatOutputLayerError(BatchWorkspace workspace, double[][] expectedOut, int offset,
+                                             int batchSize) {
+        int size = outputLayer.getSize();
+        float[] values = workspace.floatValues[layers.length - 1];
+        float[] deltas = workspace.floatDeltas[layers.length - 1];
+        double[] output = workspace.output;
+        double[] gradient = workspace.costGradient;
+        double totalError = 0;
+        for (int n = 0; n < batchSize; n++) {
+            int from = n * size;
+            double[] expected = expectedOut[offset + n];
+            for (int i = 0; i < size; i++) {
+                output[i] = values[from + i];
+            }
+            totalError += costFunction.apply(expected, output);
+            if (softmaxCrossEntropy) {
+                softmaxCrossEntropyDeltas(expected, output, gradient, 0, size);
+            } else {
+                costFunction.applyDerivative(expected, output, gradient);
+                outputLayer.getActivation().applyDerivative(output, gradient, gradient, 0, size);
+            }
+            for (int i = 0; i < size; i++) {
+                deltas[from + i] = (float) gradient[i];
+            }
+        }
+        return totalError;
+    }
+
+    //для Softmax + CrossEntropy произведение якобиана softmax на градиент expected / output
+    //сокращается до expected - output * ∑expected: деления на выходы и промежуточного градиента нет
+    private static void softmaxCrossEntropyDeltas(double[] expected, double[] values, double[] deltas,
+                                                  int from, int size) {
+        double expectedSum = 0;
+        for (int i = 0; i < size; i++) {
+            expectedSum += expected[i];
+        }
+        for (int i = 0; i < size; i++) {
+            deltas[from + i] = expected[i] - values[from + i] * expectedSum;
+        }
+    }
+
+    private void calcHiddenLayerError(BatchWorkspace workspace, int k, int batchSize) {
+        NeuronLayer currentLayer = layers[k];
+        if (workspace.floatValues != null) {
+            float[] values = workspace.floatValues[k];
+            float[] deltas = workspace.floatDeltas[k];
+            currentLayer.calculateErrors(workspace.floatDeltas[k + 1], values, deltas, batchSize);
+            int size = currentLayer.getSize();
+            for (int n = 0; n < batchSize; n++) {
+                currentLayer.getActivation().applyDerivative(values, deltas, deltas, n * size, (n + 1) * size);
+            }
+            return;
+        }
+        double[] values = workspace.values[k];
+        double[] deltas = workspace.deltas[k];
+        currentLayer.calculateErrors(workspace.deltas[k + 1], values, deltas, batchSize);
+        int size = currentLayer.getSize();
+        for (int n = 0; n < batchSize; n++) {
+            currentLayer.getActivation().applyDerivative(values, deltas, deltas, n * size, (n + 1) * size);
+        }
+    }
+
     public void feedForward(Number number) {
-        feedForward(number.getPixels());
+        //значения входного слоя нужны для обратного прохода, компактный пример распаковывается в них
+        number.copyPixels(inputLayer.getNeurons(), 0);
+        feedForwardLayers();
     }
 
+    //каждый слой пишет в собственные буферы, проход по сети не выделяет памяти
     public void feedForward(double[] pixels) {
         inputLayer.setNeurons(pixels);
+        feedForwardLayers();
+    }
+
+    private void feedForwardLayers() {
         NeuronLayer firstHiddenLayer = hiddenLayers[0];
-        firstHiddenLayer.setNeurons(firstHiddenLayer.getActivation().apply(inputLayer.calculateNetOutput()));
+        inputLayer.feedForward(firstHiddenLayer);
         if (hiddenLayers.length > 1) {
             int hiddenLayersToFeed = hiddenLayers.length - 2;
             for (int i = 0; i <= hiddenLayersToFeed; i++) {
                 NeuronLayer currentHiddenLayer = hiddenLayers[i];
                 NeuronLayer nextHiddenLayer = hiddenLayers[i + 1];
-                nextHiddenLayer.setNeurons(nextHiddenLayer.getActivation().apply(currentHiddenLayer.calculateNetOutput()));
+                currentHiddenLayer.feedForward(nextHiddenLayer);
             }
         }
         NeuronLayer lastHiddenLayer = hiddenLayers[hiddenLayers.length - 1];
-        double[] res = lastHiddenLayer.calculateNetOutput();
-        outputLayer.setNeurons(outputLayer.getActivation().apply(res));
+        lastHiddenLayer.feedForward(outputLayer);
     }
 
+    public PredictionWorkspace newPredictionWorkspace() {
+        return new PredictionWorkspace(layers);
+    }
+
+    //предсказание без изменения состояния сети: промежуточные значения пишутся в workspace,
+    //возвращает выходной буфер workspace, он перезаписывается следующим вызовом
+    public double[] predict(double[] input, PredictionWorkspace workspace) {
+        return predictLayers(0, input, workspace);
+    }
+
+    //предсказание для примера: компактный пример переводится в [0, 1] прямо в ядре первого слоя
+    public double[] predict(Number number, PredictionWorkspace workspace) {
+        if (!number.isCompact()) {
+            return predict(number.getPixels(), workspace);
+        }
+        double[] values = workspace.values[1];
+        inputLayer.calculateNetOutput(number, values);
+        layers[1].getActivation().apply(values, values);
+        return predictLayers(1, values, workspace);
+    }
+
+    //прямой проход от слоя first до выходного, inputs - значения слоя first
+    private double[] predictLayers(int first, double[] inputs, PredictionWorkspace workspace) {
+        double[][] values = workspace.values;
+        for (int k = first; k < layers.length - 1; k++) {
+            NeuronLayer nextLayer = layers[k + 1];
+            double[] outputs = values[k + 1];
+            layers[k].calculateNetOutput(inputs, outputs, 1);
+            nextLayer.getActivation().apply(outputs, outputs);
+            inputs = outputs;
+        }
+        return inputs;
+    }
+
+    public double[] predict(Number number) {
+        return predict(number, predictionWorkspace.get()).clone();
+    }
+
+    public int predictClass(Number number) {
+        return LinearAlgebra.argMax(predict(number, predictionWorkspace.get()));
+    }
+
+    //потокобезопасное предсказание, буферы берутся из workspace текущего потока
+    public double[] predict(double[] input) {
+        return predict(input, predictionWorkspace.get()).clone();
+    }
+
+    //номер нейрона выходного слоя с наибольшим значением
+    public int predictClass(double[] input) {
+        return LinearAlgebra.argMax(predict(input, predictionWorkspace.get()));
+    }
+
+    public int predictClass(double[] input, PredictionWorkspace workspace) {
+        return LinearAlgebra.argMax(predict(input, workspace));
+    }
+
+    //копия значений выходного слоя
     public double[] getOutput() {
         return outputLayer.getOutput();
     }
 
     public double getCost(double[] idealOut) {
-        double[] currentOutput = getOutput();
-        return costFunction.apply(idealOut, currentOutput);
+        return costFunction.apply(idealOut, outputLayer.getNeurons());
     }
 
-    //ошибка значений нейронов выходного слоя
+    //ошибка значений нейронов выходного слоя, считается на месте в буфере ошибок слоя
     private void calcOutputLayerError(double[] idealOut) {
         //How much does the cost change when the input to the last layer changes
-        double[] outputs = outputLayer.getOutput();
+        double[] outputs = outputLayer.getNeurons();
+        double[] deltas = outputLayer.getDeltas();
+        if (softmaxCrossEntropy) {
+            softmaxCrossEntropyDeltas(idealOut, outputs, deltas, 0, deltas.length);
+            return;
+        }
         //How much does the cost change when the output from the neuron changes?
-        double[] dCdO = costFunction.applyDerivative(idealOut, outputs);
+        costFunction.applyDerivative(idealOut, outputs, deltas);
         //How much does the output from the neuron change when the input changes?
-        double[] dCdI = outputLayer.getActivation().applyDerivative(outputs, dCdO);
-        outputLayer.setDeltas(dCdI);
+        outputLayer.getActivation().applyDerivative(outputs, deltas, deltas, 0, deltas.length);
     }
 
     //распространяем ошибку выходного слоя на скрытые слои (hid-n, out)
     private void calcHiddenLayerError(NeuronLayer currentLayer, NeuronLayer previousLayer) {
-        int currentLayerSize = currentLayer.getSize();
         //dIHdWH - How much does the input value to the neuron change when wH changes?
-        double[] output = Arrays.stream(currentLayer.getNeurons())
-                .mapToDouble(Neuron::getValue)
-                .toArray();
-        double[][] weights = currentLayer.getWeights();
+        double[] output = currentLayer.getNeurons();
         //How much does the cost change when the input changes?
-        double[] dCdI_prev = previousLayer.getDeltas();
-        double[] dCdZ = new double[currentLayerSize];
-        for (int i = 0; i < currentLayerSize; i++) {
-            double[] dIdO = weights[i]; //веса ассоциированные с i-м нейроном
-            double sum = 0;
-            for (int j = 0; j < dCdI_prev.length; j++) {
-                sum += dCdI_prev[j] * dIdO[j];
-            }
-            dCdZ[i] = sum;
-        }
+        double[] deltas = currentLayer.getDeltas();
+        currentLayer.calculateErrors(previousLayer.getDeltas(), output, deltas, 1);
         //How much does the output from the neuron change when the input changes?
-        double[] dCdI = currentLayer.getActivation().applyDerivative(output, dCdZ);
-        currentLayer.setDeltas(dCdI);
+        currentLayer.getActivation().applyDerivative(output, deltas, deltas, 0, deltas.length);
     }
 
-    //    изменение веса синапса равно коэффициенту скорости обучения, умноженному на градиент этого веса,
-    //    прибавить момент умноженный на предыдущее изменение этого веса (на 1-ой итерации равно 0)
+    //градиент весов и смещений одного примера копится прямо в суммах слоя, шаг по нему делает оптимизатор в update
     private void calcWeightsAndBiasesGradient(NeuronLayer currentLayer, NeuronLayer nextLayer) {
-        int size = currentLayer.getSize();
-        int nextSize = currentLayer.getNextSize();
-        double[][] currentWeightsDelta = new double[size][nextSize];
-        double[][] previousWeightsDelta = currentLayer.getPrevWeightDeltas();
-        double[] currentBiasDelta = new double[nextSize];
-        double[] previousBiasDelta = currentLayer.getPrevBiasDeltas();
-        Neuron[] neurons = currentLayer.getNeurons();
-        double[] nextLayerError = nextLayer.getDeltas();
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < nextSize; j++) {
-                //dCdW how much does the total cost change when exactly that W changes.
-                double gradient = neurons[i].getValue() * nextLayerError[j];
-                currentWeightsDelta[i][j] = optimizer.apply(gradient) + (momentum * previousWeightsDelta[i][j]);
-            }
-        }
-        for (int i = 0; i < nextSize; i++) {
-            currentBiasDelta[i] = optimizer.apply(nextLayerError[i]) + (momentum * previousBiasDelta[i]);
-        }
-        currentLayer.saveWeightDeltas(currentWeightsDelta);
-        currentLayer.saveBiasDeltas(currentBiasDelta);
+        //dCdW how much does the total cost change when exactly that W changes.
+        currentLayer.addGradient(currentLayer.getNeurons(), nextLayer.getDeltas());
     }
 
     //Stochastic Gradient Descent
@@ -192,15 +638,8 @@ public class NeuralNetwork {
     }
 
     private void updateAllWeightsAndBiases() {
-        inputLayer.update();
-        if (hiddenLayers.length > 1) {
-            int hiddenLayersToUpdate = hiddenLayers.length - 2;
-            for (int i = 0; i <= hiddenLayersToUpdate; i++) {
-                NeuronLayer currentHiddenLayer = hiddenLayers[i];
-                currentHiddenLayer.update();
-            }
+        for (int k = 0; k < layers.length - 1; k++) {
+            layers[k].update(optimizer, momentum);
         }
-        NeuronLayer lastHiddenLayer = hiddenLayers[hiddenLayers.length - 1];
-        lastHiddenLayer.update();
     }
 }
@@ -8,6 +8,8 @@ public class NeuralNetworkBuilder {
     private NeuronLayer inputLayer;
     private final List<NeuronLayer> hiddenLayers = new ArrayList<>();
     private NeuronLayer outputLayer;
+    private Precision precision = Precision.DOUBLE;
+    private CostFunction costFunction;
 
     private NeuralNetworkBuilder() {}
 
@@ -30,9 +32,30 @@ public class NeuralNetworkBuilder {
         return this;
     }
 
+    //точность всех слоев сети: FLOAT хранит веса во float и считает пакеты trainBatch в одинарной точности, см. Precision
+    public NeuralNetworkBuilder withPrecision(Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    //функция ошибки сети, для Softmax на выходе и CrossEntropy выбирается совмещенный расчет ошибки
+    public NeuralNetworkBuilder withCostFunction(CostFunction costFunction) {
+        this.costFunction = costFunction;
+        return this;
+    }
+
     public NeuralNetwork build() {
         NeuronLayer[] hiddenLayers = new NeuronLayer[this.hiddenLayers.size()];
         hiddenLayers = this.hiddenLayers.toArray(hiddenLayers);
-        return new NeuralNetwork(inputLayer, hiddenLayers, outputLayer);
+        inputLayer.setPrecision(precision);
+        for (NeuronLayer hiddenLayer : hiddenLayers) {
+            hiddenLayer.setPrecision(precision);
+        }
+        outputLayer.setPrecision(precision);
+        NeuralNetwork neuralNetwork = new NeuralNetwork(inputLayer, hiddenLayers, outputLayer);
+        if (costFunction != null) {
+            neuralNetwork.setCostFunction(costFunction);
+        }
+        return neuralNetwork;
     }
 }
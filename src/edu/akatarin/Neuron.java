@@ -1,14 +1,21 @@
 package edu.akatarin;
 
+//Представление одного нейрона поверх плоского массива значений слоя
 public class Neuron {
 
-    private double value;
+    private final double[] values;
+    private final int index;
+
+    Neuron(double[] values, int index) {
+        this.values = values;
+        this.index = index;
+    }
 
     public void setValue(double input){
-        value = input;
+        values[index] = input;
     }
 
     public double getValue() {
-        return value;
+        return values[index];
     }
 }
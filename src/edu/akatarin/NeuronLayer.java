@@ -1,6 +1,8 @@
 package edu.akatarin;
 
 
+import edu.akatarin.math.LinearAlgebra;
+
 import java.util.Arrays;
 
 public class NeuronLayer {
@@ -9,32 +11,41 @@ public class NeuronLayer {
     private Initializer initializer = Initializer.RANDOM_GAUSSIAN;
     private final int size;
     private final int nextSize;
-    private final Neuron[] neurons;
+    //значения нейронов слоя и их входы до активации, буферы переиспользуются при каждом проходе
+    private final double[] neurons;
+    private final double[] netInputs;
     private double[] deltas;
-    private double[][] weights;
-    private final double[][] weightDeltas;
-    private final double[][] weightDeltasPrev;
+    //матрицы size x nextSize хранятся построчно: вес связи i -> j лежит в [i * nextSize + j]
+    private double[] weights;
+    //суммы градиентов с последнего обновления
+    private double[] weightGradients;
+    //при одинарной точности веса и их градиенты хранятся во float-массивах, а double-массивы выше не используются
+    private Precision precision = Precision.DOUBLE;
+    private float[] floatWeights;
+    private float[] floatWeightGradients;
     private final double[] biases;
-    private final double[] biasDeltas;
-    private final double[] biasDeltasPrev;
+    private final double[] biasGradients;
     private int updates;
     private int biasUpdates;
+    //состояние оптимизатора для весов и смещений, создается при первом обновлении
+    private Optimizer.State weightState;
+    private Optimizer.State biasState;
     private double L2 = 0;
+    //входы слоя в основном нулевые (пиксели): умножение и градиент весов проходят только по ненулевым
+    private boolean sparseInputs;
+    //индексы весов, обнуленных prune: после каждого шага оптимизатора они снова становятся нулями
+    private int[] prunedWeights;
 
     public NeuronLayer(int size, int nextSize) {
         this.size = size;
         this.nextSize = nextSize;
         deltas = new double[size];
-        weights = initializer.initWeights(new double[size][nextSize]);
-        weightDeltas = new double[size][nextSize];
-        weightDeltasPrev = new double[size][nextSize];
+        weights = initializer.initWeights(new double[size * nextSize], size, nextSize);
+        weightGradients = new double[size * nextSize];
         biases = new double[nextSize];
-        biasDeltas = new double[nextSize];
-        biasDeltasPrev = new double[nextSize];
-        neurons = new Neuron[size];
-        for (int i = 0; i < size; i++) {
-            neurons[i] = new Neuron();
-        }
+        biasGradients = new double[nextSize];
+        neurons = new double[size];
+        netInputs = new double[size];
     }
 
     public NeuronLayer(int size, int nextSize, Activation activation) {
@@ -61,6 +72,49 @@ public class NeuronLayer {
         return this;
     }
 
+    //разреженный режим для слоя, чьи входы в основном нули, например входного слоя MNIST:
+    //ненулевые входы каждого примера находятся при каждом проходе, нулевые строки весов не читаются
+    public NeuronLayer withSparseInputs() {
+        sparseInputs = true;
+        return this;
+    }
+
+    public boolean hasSparseInputs() {
+        return sparseInputs;
+    }
+
+    //при обратном проходе строки весов нулевых входов пропускаются: у входного слоя в разреженном режиме
+    //и у слоя с ReLU, чьи неактивные нейроны имеют нулевое значение
+    private boolean skipsZeroInputs() {
+        return sparseInputs || activation.hasSparseOutput();
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    //переводит веса и их градиенты в нужную точность, задается через NeuralNetworkBuilder.
+    //состояние оптимизатора создается заново в новой точности
+    void setPrecision(Precision precision) {
+        if (precision == this.precision) {
+            return;
+        }
+        if (precision == Precision.FLOAT) {
+            floatWeights = toFloat(weights);
+            floatWeightGradients = toFloat(weightGradients);
+            weights = null;
+            weightGradients = null;
+        } else {
+            weights = toDouble(floatWeights);
+            weightGradients = toDouble(floatWeightGradients);
+            floatWeights = null;
+            floatWeightGradients = null;
+        }
+        weightState = null;
+        biasState = null;
+        this.precision = precision;
+    }
+
     public int getSize() {
         return size;
     }
@@ -81,95 +135,424 @@ public class NeuronLayer {
         return biases;
     }
 
-    public double[] getPrevBiasDeltas() {
-        return biasDeltasPrev;
+    public Activation getActivation() {
+        return activation;
+    }
+
+    //gradient - сумма градиентов весов по count примерам, копится до update
+    public void saveWeightGradient(double[] gradient, int count) {
+        if (precision == Precision.FLOAT) {
+            for (int i = 0; i < floatWeightGradients.length; i++) {
+                floatWeightGradients[i] += (float) gradient[i];
+            }
+        } else {
+            LinearAlgebra.axpy(1.0, gradient, 0, weightGradients, 0, weightGradients.length);
+        }
+        updates += count;
     }
 
-    public double[][] getPrevWeightDeltas() {
-        return weightDeltasPrev;
+    //то же для градиента, посчитанного во float (пакет сети одинарной точности)
+    public void saveWeightGradient(float[] gradient, int count) {
+        LinearAlgebra.axpy(1f, gradient, 0, floatWeightGradients, 0, floatWeightGradients.length);
+        updates += count;
     }
 
-    public Activation getActivation() {
-        return activation;
+    public void saveBiasGradient(double[] gradient, int count) {
+        LinearAlgebra.axpy(1.0, gradient, 0, biasGradients, 0, nextSize);
+        biasUpdates += count;
     }
 
-    public void saveWeightDeltas(double[][] weightDeltas) {
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < nextSize; j++) {
-                this.weightDeltas[i][j] += weightDeltas[i][j];
+    //градиент одного примера копится прямо в суммах слоя: weightGradients += values ⊗ deltas, без промежуточной матрицы
+    public void addGradient(double[] values, double[] deltas) {
+        if (precision == Precision.FLOAT) {
+            for (int i = 0; i < size; i++) {
+                if (!skipsZeroInputs() || values[i] != 0) {
+                    LinearAlgebra.axpy(values[i], deltas, 0, floatWeightGradients, i * nextSize, nextSize);
+                }
             }
+        } else if (skipsZeroInputs()) {
+            LinearAlgebra.addTransposedProductSparse(values, deltas, weightGradients, 1, size, nextSize);
+        } else {
+            LinearAlgebra.addOuterProduct(values, deltas, weightGradients, size, nextSize);
         }
+        LinearAlgebra.axpy(1.0, deltas, 0, biasGradients, 0, nextSize);
         updates++;
+        biasUpdates++;
     }
 
-    public void saveBiasDeltas(double[] biasDelta) {
-        for (int i = 0; i < nextSize; i++) {
-            this.biasDeltas[i] += biasDelta[i];
+    //пакетный вариант: weightGradients += inputs^T * nextDeltas, при одинарной точности - сразу в floatWeightGradients
+    public void addGradient(double[] inputs, double[] nextDeltas, int batchSize) {
+        if (precision == Precision.FLOAT) {
+            if (skipsZeroInputs()) {
+                LinearAlgebra.addTransposedProductSparse(inputs, nextDeltas, floatWeightGradients, batchSize, size, nextSize);
+            } else {
+                LinearAlgebra.addTransposedProduct(inputs, nextDeltas, floatWeightGradients, batchSize, size, nextSize);
+            }
+        } else if (skipsZeroInputs()) {
+            LinearAlgebra.addTransposedProductSparse(inputs, nextDeltas, weightGradients, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.addTransposedProduct(inputs, nextDeltas, weightGradients, batchSize, size, nextSize);
         }
-        biasUpdates++;
+        LinearAlgebra.addRowSums(nextDeltas, biasGradients, batchSize, nextSize);
+        updates += batchSize;
+        biasUpdates += batchSize;
     }
 
-    public void update() {
+    //пакетный вариант для пакета во float, только при одинарной точности
+    public void addGradient(float[] inputs, float[] nextDeltas, int batchSize) {
+        if (skipsZeroInputs()) {
+            LinearAlgebra.addTransposedProductSparse(inputs, nextDeltas, floatWeightGradients, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.addTransposedProduct(inputs, nextDeltas, floatWeightGradients, batchSize, size, nextSize);
+        }
+        LinearAlgebra.addRowSums(nextDeltas, biasGradients, batchSize, nextSize);
+        updates += batchSize;
+        biasUpdates += batchSize;
+    }
+
+    //L2-норма накопленной суммы градиентов весов
+    public double getGradientNorm() {
+        if (precision == Precision.FLOAT) {
+            double sum = 0;
+            for (float gradient : floatWeightGradients) {
+                sum += (double) gradient * gradient;
+            }
+            return Math.sqrt(sum);
+        }
+        return Math.sqrt(LinearAlgebra.dot(weightGradients, 0, weightGradients, 0, weightGradients.length));
+    }
+
+    //один шаг оптимизатора по накопленным градиентам: весь массив весов и смещений за вызов.
+    //момент, L2 и шаг применяются за один проход, в нем же суммы градиентов обнуляются.
+    //при смене оптимизатора его состояние создается заново
+    public void update(Optimizer optimizer, double momentum) {
+        if (weightState == null || weightState.optimizer != optimizer) {
+            weightState = optimizer.newState(size * nextSize, precision);
+            biasState = optimizer.newState(nextSize, Precision.DOUBLE);
+        }
+        if (precision == Precision.FLOAT) {
+            optimizer.update(weightState, floatWeights, floatWeightGradients, updates, momentum, L2);
+        } else {
+            optimizer.update(weightState, weights, weightGradients, updates, momentum, L2);
+        }
+        optimizer.update(biasState, biases, biasGradients, biasUpdates, momentum, 0);
+        updates = 0;
+        biasUpdates = 0;
+        if (prunedWeights != null) {
+            zeroPrunedWeights();
+        }
+    }
+
+    //магнитудная обрезка: обнуляет долю sparsity весов с наименьшим модулем.
+    //при дообучении обнуленные веса остаются нулями, повторный вызов с большей долей обрезает дальше
+    public void prune(double sparsity) {
+        prune(sparsity, 1, 1);
+    }
+
+    //блочная обрезка: матрица весов делится на блоки blockRows входов x blockColumns соседних выходов
+    //(крайние блоки могут быть меньше), обнуляется доля sparsity блоков с наименьшей суммой квадратов весов.
+    //целый блок CsrLayer считает несколькими векторными fma, отдельные нули - только поэлементно
+    public void prune(double sparsity, int blockRows, int blockColumns) {
+        if (sparsity < 0 || sparsity > 1) {
+            throw new IllegalArgumentException("Sparsity must be in [0, 1]: " + sparsity);
+        }
+        if (blockRows < 1 || blockColumns < 1) {
+            throw new IllegalArgumentException("Block must be positive: " + blockRows + "x" + blockColumns);
+        }
+        int blocksPerRow = (nextSize + blockColumns - 1) / blockColumns;
+        int blockCount = (size + blockRows - 1) / blockRows * blocksPerRow;
+        int count = (int) Math.round(sparsity * blockCount);
+        if (count == 0) {
+            prunedWeights = null;
+            return;
+        }
+        double[] values = getWeights();
+        double[] norms = new double[blockCount];
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < nextSize; j++) {
-                weightDeltasPrev[i][j] = (weightDeltas[i][j] / updates);
-                if (L2 > 0){
-                    double l2RegulizedWeight = weights[i][j] - weights[i][j] * L2;
-                    weights[i][j] = l2RegulizedWeight + (weightDeltas[i][j] / updates);
-                } else {
-                    weights[i][j] = weights[i][j] + (weightDeltas[i][j] / updates);
-                }
+                double weight = values[i * nextSize + j];
+                norms[i / blockRows * blocksPerRow + j / blockColumns] += weight * weight;
             }
         }
-        for (int i = 0; i < nextSize; i++) {
-            biasDeltasPrev[i] = (biasDeltas[i] / biasUpdates);
-            biases[i] = biases[i] + (biasDeltas[i] / biasUpdates);
+        double[] sorted = norms.clone();
+        Arrays.sort(sorted);
+        double threshold = sorted[count - 1];
+        //сначала все блоки меньше порога, затем равные ему, пока их не наберется count
+        boolean[] prunedBlocks = new boolean[blockCount];
+        int n = 0;
+        for (int b = 0; b < blockCount; b++) {
+            if (norms[b] < threshold) {
+                prunedBlocks[b] = true;
+                n++;
+            }
         }
-
-        //clear
+        for (int b = 0; b < blockCount && n < count; b++) {
+            if (norms[b] == threshold) {
+                prunedBlocks[b] = true;
+                n++;
+            }
+        }
+        int[] pruned = new int[values.length];
+        n = 0;
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < nextSize; j++) {
-                weightDeltas[i][j] = 0;
+                if (prunedBlocks[i / blockRows * blocksPerRow + j / blockColumns]) {
+                    pruned[n++] = i * nextSize + j;
+                }
+            }
+        }
+        prunedWeights = Arrays.copyOf(pruned, n);
+        zeroPrunedWeights();
+    }
+
+    private void zeroPrunedWeights() {
+        if (precision == Precision.FLOAT) {
+            for (int i : prunedWeights) {
+                floatWeights[i] = 0;
+            }
+        } else {
+            for (int i : prunedWeights) {
+                weights[i] = 0;
             }
         }
-        for (int i = 0; i < nextSize; i++) {
-            biasDeltas[i] = 0;
+    }
+
+    //доля нулевых весов
+    public double getSparsity() {
+        long zeros = 0;
+        if (precision == Precision.FLOAT) {
+            for (float weight : floatWeights) {
+                zeros += weight == 0 ? 1 : 0;
+            }
+        } else {
+            for (double weight : weights) {
+                zeros += weight == 0 ? 1 : 0;
+            }
         }
-        updates = 0;
-        biasUpdates = 0;
+        int total = size * nextSize;
+        return total == 0 ? 0 : (double) zeros / total;
     }
 
-    public double[][] getWeights() {
-        return weights;
+    //при одинарной точности возвращается копия
+    public double[] getWeights() {
+        return precision == Precision.FLOAT ? toDouble(floatWeights) : weights;
     }
 
-    public Neuron[] getNeurons() {
+    //L2-норма матрицы весов
+    public double getWeightNorm() {
+        if (precision == Precision.FLOAT) {
+            double sum = 0;
+            for (float weight : floatWeights) {
+                sum += (double) weight * weight;
+            }
+            return Math.sqrt(sum);
+        }
+        return Math.sqrt(LinearAlgebra.dot(weights, 0, weights, 0, weights.length));
+    }
+
+    //веса при одинарной точности, иначе null
+    public float[] getFloatWeights() {
+        return floatWeights;
+    }
+
+    public double[] getNeurons() {
         return neurons;
     }
 
+    public Neuron getNeuron(int index) {
+        return new Neuron(neurons, index);
+    }
+
     public void setNeurons(double[] inputs) {
-        for (int i = 0; i < size; i++) {
-            neurons[i].setValue(inputs[i]);
-        }
+        System.arraycopy(inputs, 0, neurons, 0, size);
     }
 
     public double[] calculateNetOutput() {
         double[] netOutput = new double[nextSize];
-        for (int i = 0; i < nextSize; i++) {
-            double total = 0.0;
-            for (int j = 0; j < size; j++) {
-                total += neurons[j].getValue() * weights[j][i];
+        calculateNetOutput(netOutput);
+        return netOutput;
+    }
+
+    //проходим веса построчно, накапливая вклад каждого нейрона во все выходы сразу
+    public void calculateNetOutput(double[] netOutput) {
+        calculateNetOutput(neurons, netOutput, 1);
+    }
+
+    //пакетный вариант: inputs - матрица batchSize x size, netOutputs - batchSize x nextSize
+    public void calculateNetOutput(double[] inputs, double[] netOutputs, int batchSize) {
+        for (int s = 0; s < batchSize; s++) {
+            System.arraycopy(biases, 0, netOutputs, s * nextSize, nextSize);
+        }
+        if (precision == Precision.FLOAT) {
+            if (sparseInputs) {
+                LinearAlgebra.multiplySparse(inputs, floatWeights, netOutputs, batchSize, size, nextSize);
+            } else {
+                LinearAlgebra.multiply(inputs, floatWeights, netOutputs, batchSize, size, nextSize);
             }
-            netOutput[i] = total + biases[i];
+        } else if (sparseInputs) {
+            LinearAlgebra.multiplySparse(inputs, weights, netOutputs, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.multiply(inputs, weights, netOutputs, batchSize, size, nextSize);
         }
-        return netOutput;
+    }
+
+    //пакет во float, только при одинарной точности: смещения округляются до float при копировании в строки
+    public void calculateNetOutput(float[] inputs, float[] netOutputs, int batchSize) {
+        for (int s = 0; s < batchSize; s++) {
+            for (int j = 0; j < nextSize; j++) {
+                netOutputs[s * nextSize + j] = (float) biases[j];
+            }
+        }
+        if (sparseInputs) {
+            LinearAlgebra.multiplySparse(inputs, floatWeights, netOutputs, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.multiply(inputs, floatWeights, netOutputs, batchSize, size, nextSize);
+        }
+    }
+
+    //вход - компактный пример, пиксели переводятся в [0, 1] прямо в ядре умножения
+    public void calculateNetOutput(Number input, double[] netOutput) {
+        System.arraycopy(biases, 0, netOutput, 0, nextSize);
+        if (precision == Precision.FLOAT) {
+            if (sparseInputs) {
+                LinearAlgebra.multiplySparse(input.getData(), input.getOffset(), Number.BYTE_PIXELS, floatWeights, netOutput, size, nextSize);
+            } else {
+                LinearAlgebra.multiply(input.getData(), input.getOffset(), Number.BYTE_PIXELS, floatWeights, netOutput, size, nextSize);
+            }
+        } else if (sparseInputs) {
+            LinearAlgebra.multiplySparse(input.getData(), input.getOffset(), Number.BYTE_PIXELS, weights, netOutput, size, nextSize);
+        } else {
+            LinearAlgebra.multiply(input.getData(), input.getOffset(), Number.BYTE_PIXELS, weights, netOutput, size, nextSize);
+        }
+    }
+
+    //распространяет ошибки следующего слоя на нейроны этого слоя: errors = nextDeltas * weights^T
+    public void calculateErrors(double[] nextDeltas, double[] errors) {
+        calculateErrors(nextDeltas, errors, 1);
+    }
+
+    //пакетный вариант: nextDeltas - матрица batchSize x nextSize, errors - batchSize x size
+    public void calculateErrors(double[] nextDeltas, double[] errors, int batchSize) {
+        if (precision == Precision.FLOAT) {
+            LinearAlgebra.multiplyTransposed(nextDeltas, floatWeights, errors, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.multiplyTransposed(nextDeltas, weights, errors, batchSize, size, nextSize);
+        }
+    }
+
+    //ошибки нейронов слоя по их значениям values (batchSize x size): если активация слоя разреженная (ReLU),
+    //ошибки неактивных нейронов не считаются и равны нулю, как после применения производной
+    public void calculateErrors(double[] nextDeltas, double[] values, double[] errors, int batchSize) {
+        if (!activation.hasSparseOutput()) {
+            calculateErrors(nextDeltas, errors, batchSize);
+        } else if (precision == Precision.FLOAT) {
+            LinearAlgebra.multiplyTransposedMasked(nextDeltas, floatWeights, values, errors, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.multiplyTransposedMasked(nextDeltas, weights, values, errors, batchSize, size, nextSize);
+        }
+    }
+
+    //ошибки для пакета во float, только при одинарной точности
+    public void calculateErrors(float[] nextDeltas, float[] values, float[] errors, int batchSize) {
+        if (activation.hasSparseOutput()) {
+            LinearAlgebra.multiplyTransposedMasked(nextDeltas, floatWeights, values, errors, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.multiplyTransposed(nextDeltas, floatWeights, errors, batchSize, size, nextSize);
+        }
+    }
+
+    //градиенты весов и смещений, просуммированные по пакету: weightsGradient = inputs^T * nextDeltas
+    public void calculateGradient(double[] inputs, double[] nextDeltas, int batchSize,
+                                  double[] weightsGradient, double[] biasGradient) {
+        Arrays.fill(weightsGradient, 0);
+        Arrays.fill(biasGradient, 0);
+        if (skipsZeroInputs()) {
+            LinearAlgebra.addTransposedProductSparse(inputs, nextDeltas, weightsGradient, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.addTransposedProduct(inputs, nextDeltas, weightsGradient, batchSize, size, nextSize);
+        }
+        LinearAlgebra.addRowSums(nextDeltas, biasGradient, batchSize, nextSize);
+    }
+
+    //то же для пакета во float: градиент весов во float, смещений - в double
+    public void calculateGradient(float[] inputs, float[] nextDeltas, int batchSize,
+                                  float[] weightsGradient, double[] biasGradient) {
+        Arrays.fill(weightsGradient, 0);
+        Arrays.fill(biasGradient, 0);
+        if (skipsZeroInputs()) {
+            LinearAlgebra.addTransposedProductSparse(inputs, nextDeltas, weightsGradient, batchSize, size, nextSize);
+        } else {
+            LinearAlgebra.addTransposedProduct(inputs, nextDeltas, weightsGradient, batchSize, size, nextSize);
+        }
+        LinearAlgebra.addRowSums(nextDeltas, biasGradient, batchSize, nextSize);
+    }
+
+    //сразу прибавляет к весам и смещениям изменения одного примера: weights += values ⊗ deltas.
+    //без блокировок (Hogwild), строки весов нейронов с нулевым значением не трогаются
+    public void addToWeightsAndBiases(double[] values, double[] deltas) {
+        for (int i = 0; i < size; i++) {
+            double value = values[i];
+            if (value != 0) {
+                if (precision == Precision.FLOAT) {
+                    LinearAlgebra.axpy(value, deltas, 0, floatWeights, i * nextSize, nextSize);
+                } else {
+                    LinearAlgebra.axpy(value, deltas, 0, weights, i * nextSize, nextSize);
+                }
+            }
+        }
+        LinearAlgebra.axpy(1.0, deltas, 0, biases, 0, nextSize);
+    }
+
+    //считает значения нейронов следующего слоя в его собственные буферы, без выделения памяти
+    public void feedForward(NeuronLayer nextLayer) {
+        calculateNetOutput(nextLayer.netInputs);
+        nextLayer.activation.apply(nextLayer.netInputs, nextLayer.neurons);
     }
 
     public double[] getOutput() {
-        return Arrays.stream(neurons).mapToDouble(Neuron::getValue).toArray();
+        return neurons.clone();
     }
 
     public void setWeights(double[][] weights) {
-        this.weights = weights;
+        double[] flat = new double[size * nextSize];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(weights[i], 0, flat, i * nextSize, nextSize);
+        }
+        setWeights(flat);
+    }
+
+    //новые веса сбрасывают обрезку
+    public void setWeights(double[] weights) {
+        prunedWeights = null;
+        if (precision == Precision.FLOAT) {
+            floatWeights = toFloat(weights);
+        } else {
+            this.weights = weights;
+        }
+    }
+
+    public void setWeights(float[] weights) {
+        prunedWeights = null;
+        if (precision == Precision.FLOAT) {
+            floatWeights = weights;
+        } else {
+            this.weights = toDouble(weights);
+        }
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    private static double[] toDouble(float[] values) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
     }
 }
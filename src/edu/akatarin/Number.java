@@ -15,16 +15,78 @@ public class Number {
             {0, 0, 0, 0, 0, 0, 0, 0, 0, 1},//9
     };
 
+    //значение пикселя для каждого беззнакового байта, от 0 до 1
+    static final double[] BYTE_PIXELS = new double[256];
+
+    static {
+        for (int i = 0; i < BYTE_PIXELS.length; i++) {
+            BYTE_PIXELS[i] = i / 255.0;
+        }
+    }
+
+    //пиксели хранятся либо в pixels, либо компактно: байтами 0..255 в отрезке [offset..offset + length)
+    //массива data, который может быть общим для всего набора данных
     private final double[] pixels;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
     private final int value;
 
     public Number(double[] pixels, int value) {
         this.pixels = pixels;
+        this.data = null;
+        this.offset = 0;
+        this.length = pixels.length;
         this.value = value;
     }
 
+    public Number(byte[] data, int offset, int length, int value) {
+        this.pixels = null;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.value = value;
+    }
+
+    public static double pixelValue(byte b) {
+        return BYTE_PIXELS[b & 0xFF];
+    }
+
+    public boolean isCompact() {
+        return data != null;
+    }
+
+    public int getPixelCount() {
+        return length;
+    }
+
+    //для компактного примера возвращается новый массив
     public double[] getPixels() {
-        return pixels;
+        if (pixels != null) {
+            return pixels;
+        }
+        double[] result = new double[length];
+        copyPixels(result, 0);
+        return result;
+    }
+
+    //пишет пиксели в out начиная с outOffset
+    public void copyPixels(double[] out, int outOffset) {
+        if (pixels != null) {
+            System.arraycopy(pixels, 0, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = BYTE_PIXELS[data[offset + i] & 0xFF];
+        }
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getOffset() {
+        return offset;
     }
 
     public int getValue() {
@@ -1,55 +1,235 @@
 package edu.akatarin;
 
-import java.util.function.DoubleUnaryOperator;
-
+//Оптимизатор обновляет весь массив параметров слоя (веса или смещения) за один вызов.
+//Состояние каждого параметра - предыдущие изменения, моменты - хранится в плоских массивах State,
+//которые оптимизатор создает для каждого массива параметров, см. NeuronLayer.update.
+//gradient - сумма по count примерам направлений изменения параметров (к параметрам они прибавляются),
+//шаг считается по среднему gradient / count. L2 уменьшает параметры перед шагом: w = w - w * l2.
+//update проходит по параметрам один раз: шаг, момент и L2 применяются вместе, gradient в том же проходе обнуляется
 public abstract class Optimizer {
-    String name;
-    double learningRate;
-    DoubleUnaryOperator function;
+    final String name;
+    final double learningRate;
+
+    Optimizer(String name, double learningRate) {
+        this.name = name;
+        this.learningRate = learningRate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    //состояние для массива из size параметров, хранящегося с точностью precision
+    abstract State newState(int size, Precision precision);
+
+    //momentum - момент сети (NeuralNetwork.setMomentum), его использует только GradientDescent
+    abstract void update(State state, double[] params, double[] gradient, int count, double momentum, double l2);
 
-    abstract String getName();
-    abstract double apply(double x);
+    abstract void update(State state, float[] params, float[] gradient, int count, double momentum, double l2);
 
+    //moments[m][i] - m-й момент i-го параметра, при одинарной точности - floatMoments
+    static final class State {
+        final Optimizer optimizer;
+        final double[][] moments;
+        final float[][] floatMoments;
+        //число сделанных шагов, для поправки смещения моментов Adam
+        long steps;
+
+        State(Optimizer optimizer, int size, int momentCount, Precision precision) {
+            this.optimizer = optimizer;
+            if (precision == Precision.FLOAT) {
+                moments = null;
+                floatMoments = new float[momentCount][size];
+            } else {
+                moments = new double[momentCount][size];
+                floatMoments = null;
+            }
+        }
+    }
 
+    //изменение параметра: learningRate * средний градиент + momentum * предыдущее изменение
     public static class GradientDescent extends Optimizer {
 
         public GradientDescent(double learningRate) {
-            this.name = "Gradient Descent";
-            this.learningRate = learningRate;
+            this("Gradient Descent", learningRate);
+        }
+
+        GradientDescent(String name, double learningRate) {
+            super(name, learningRate);
+        }
+
+        @Override
+        State newState(int size, Precision precision) {
+            return new State(this, size, 1, precision);
         }
 
         @Override
-        double apply(double x) {
-            return learningRate * x;
+        void update(State state, double[] params, double[] gradient, int count, double momentum, double l2) {
+            double[] prevDeltas = state.moments[0];
+            double batchMomentum = count * momentum;
+            for (int i = 0; i < params.length; i++) {
+                double delta = (learningRate * gradient[i] + batchMomentum * prevDeltas[i]) / count;
+                gradient[i] = 0;
+                prevDeltas[i] = delta;
+                if (l2 > 0) {
+                    params[i] = params[i] - params[i] * l2 + delta;
+                } else {
+                    params[i] = params[i] + delta;
+                }
+            }
         }
 
         @Override
-        public String getName() {
-           return name;
+        void update(State state, float[] params, float[] gradient, int count, double momentum, double l2) {
+            float[] prevDeltas = state.floatMoments[0];
+            double batchMomentum = count * momentum;
+            float scale = 1.0f / count;
+            float decay = (float) (1.0 - l2);
+            for (int i = 0; i < params.length; i++) {
+                float delta = (float) (learningRate * gradient[i] + batchMomentum * prevDeltas[i]) * scale;
+                gradient[i] = 0;
+                prevDeltas[i] = delta;
+                params[i] = (l2 > 0 ? params[i] * decay : params[i]) + delta;
+            }
         }
     }
 
-    public static class Momentum extends Optimizer {
+    //градиентный спуск со своим моментом вместо момента сети
+    public static class Momentum extends GradientDescent {
         private final double momentum;
 
         public Momentum(double learningRate, double momentum) {
-            this.name = "Momentum";
-            this.learningRate = learningRate;
+            super("Momentum", learningRate);
             this.momentum = momentum;
         }
 
         @Override
-        String getName() {
-            return name;
+        void update(State state, double[] params, double[] gradient, int count, double networkMomentum, double l2) {
+            super.update(state, params, gradient, count, momentum, l2);
         }
 
         @Override
-        double apply(double x) {
-            return learningRate * x;
+        void update(State state, float[] params, float[] gradient, int count, double networkMomentum, double l2) {
+            super.update(state, params, gradient, count, momentum, l2);
+        }
+    }
+
+    //шаг делится на скользящий средний квадрат градиента параметра:
+    //v = rho * v + (1 - rho) * g^2, w += learningRate * g / (sqrt(v) + epsilon)
+    public static class RMSProp extends Optimizer {
+        private final double rho;
+        private final double epsilon;
+
+        public RMSProp(double learningRate) {
+            this(learningRate, 0.9, 1e-8);
+        }
+
+        public RMSProp(double learningRate, double rho, double epsilon) {
+            super("RMSProp", learningRate);
+            this.rho = rho;
+            this.epsilon = epsilon;
         }
 
-        double applyMomentum( double y){
-           return momentum * y;
+        @Override
+        State newState(int size, Precision precision) {
+            return new State(this, size, 1, precision);
+        }
+
+        @Override
+        void update(State state, double[] params, double[] gradient, int count, double momentum, double l2) {
+            double[] meanSquares = state.moments[0];
+            double scale = 1.0 / count;
+            double decay = 1.0 - l2;
+            for (int i = 0; i < params.length; i++) {
+                double g = gradient[i] * scale;
+                gradient[i] = 0;
+                double v = rho * meanSquares[i] + (1 - rho) * g * g;
+                meanSquares[i] = v;
+                params[i] = params[i] * decay + learningRate * g / (Math.sqrt(v) + epsilon);
+            }
+        }
+
+        @Override
+        void update(State state, float[] params, float[] gradient, int count, double momentum, double l2) {
+            float[] meanSquares = state.floatMoments[0];
+            double scale = 1.0 / count;
+            double decay = 1.0 - l2;
+            for (int i = 0; i < params.length; i++) {
+                double g = gradient[i] * scale;
+                gradient[i] = 0;
+                double v = rho * meanSquares[i] + (1 - rho) * g * g;
+                meanSquares[i] = (float) v;
+                params[i] = (float) (params[i] * decay + learningRate * g / (Math.sqrt(v) + epsilon));
+            }
+        }
+    }
+
+    //Adam: скользящие средние градиента m и его квадрата v с поправкой на смещение к нулю в начале обучения,
+    //w += learningRate * m^ / (sqrt(v^) + epsilon)
+    public static class Adam extends Optimizer {
+        private final double beta1;
+        private final double beta2;
+        private final double epsilon;
+
+        public Adam(double learningRate) {
+            this(learningRate, 0.9, 0.999, 1e-8);
+        }
+
+        public Adam(double learningRate, double beta1, double beta2, double epsilon) {
+            super("Adam", learningRate);
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        State newState(int size, Precision precision) {
+            return new State(this, size, 2, precision);
+        }
+
+        @Override
+        void update(State state, double[] params, double[] gradient, int count, double momentum, double l2) {
+            double[] means = state.moments[0];
+            double[] meanSquares = state.moments[1];
+            long step = ++state.steps;
+            //поправки на смещение вынесены из цикла в шаг и epsilon
+            double stepSize = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+            double scaledEpsilon = epsilon * Math.sqrt(1 - Math.pow(beta2, step));
+            double scale = 1.0 / count;
+            double decay = 1.0 - l2;
+            for (int i = 0; i < params.length; i++) {
+                double g = gradient[i] * scale;
+                gradient[i] = 0;
+                double m = beta1 * means[i] + (1 - beta1) * g;
+                double v = beta2 * meanSquares[i] + (1 - beta2) * g * g;
+                means[i] = m;
+                meanSquares[i] = v;
+                params[i] = params[i] * decay + stepSize * m / (Math.sqrt(v) + scaledEpsilon);
+            }
+        }
+
+        @Override
+        void update(State state, float[] params, float[] gradient, int count, double momentum, double l2) {
+            float[] means = state.floatMoments[0];
+            float[] meanSquares = state.floatMoments[1];
+            long step = ++state.steps;
+            double stepSize = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+            double scaledEpsilon = epsilon * Math.sqrt(1 - Math.pow(beta2, step));
+            double scale = 1.0 / count;
+            double decay = 1.0 - l2;
+            for (int i = 0; i < params.length; i++) {
+                double g = gradient[i] * scale;
+                gradient[i] = 0;
+                double m = beta1 * means[i] + (1 - beta1) * g;
+                double v = beta2 * meanSquares[i] + (1 - beta2) * g * g;
+                means[i] = (float) m;
+                meanSquares[i] = (float) v;
+                params[i] = (float) (params[i] * decay + stepSize * m / (Math.sqrt(v) + scaledEpsilon));
+            }
         }
     }
 }
@@ -0,0 +1,11 @@
+package edu.akatarin;
+
+//Точность хранения весов и их изменений в слоях сети
+public enum Precision {
+    DOUBLE,
+    //float: веса и их градиенты во float, а пакет в trainBatch считается целиком во float - значения нейронов,
+    //ошибки и градиенты, векторные ядра обрабатывают за шаг вдвое больше элементов, чем в double.
+    //В double остаются смещения, функция ошибки на выходном слое и оптимизатор смещений. Пример за примером
+    //(backpropagation, Hogwild) и predict читают float-веса, значения нейронов считаются в double
+    FLOAT
+}
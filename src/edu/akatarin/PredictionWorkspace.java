@@ -0,0 +1,19 @@
+package edu.akatarin;
+
+//Буферы значений нейронов для одного прохода предсказания. Принадлежат вызывающему потоку:
+//при предсказании сеть только читает веса, поэтому одну сеть могут использовать несколько потоков сразу
+public final class PredictionWorkspace {
+    //значения нейронов слоев, values[0] не используется - входом служит массив вызывающего
+    final double[][] values;
+
+    PredictionWorkspace(NeuronLayer[] layers) {
+        values = new double[layers.length][];
+        for (int k = 1; k < layers.length; k++) {
+            values[k] = new double[layers[k].getSize()];
+        }
+    }
+
+    public double[] getOutput() {
+        return values[values.length - 1];
+    }
+}
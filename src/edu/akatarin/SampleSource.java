@@ -0,0 +1,57 @@
+package edu.akatarin;
+
+import java.util.List;
+
+//Набор примеров с доступом по номеру. BatchPipeline и Evaluator читают пиксели прямо в свои буферы,
+//поэтому набор не обязан помещаться в кучу: например, MNISTDataset отдает их из отображенного в память файла.
+//Методы вызываются из нескольких потоков сразу, набор не должен меняться во время работы
+public interface SampleSource {
+
+    int size();
+
+    int getPixelCount();
+
+    //число классов, наибольшая метка + 1: длина ожидаемого выхода, у сети должно быть столько же выходов
+    int getClassCount();
+
+    //класс примера (для MNIST - цифра), номер единицы в ожидаемом выходе
+    int getLabel(int index);
+
+    //пишет пиксели примера в out начиная с offset
+    void getPixels(int index, double[] out, int offset);
+
+    //набор поверх списка примеров в памяти, список не копируется. Число классов считается один раз
+    static SampleSource of(List<Number> samples) {
+        int maxLabel = 0;
+        for (Number sample : samples) {
+            maxLabel = Math.max(maxLabel, sample.getValue());
+        }
+        int classCount = maxLabel + 1;
+        return new SampleSource() {
+            @Override
+            public int size() {
+                return samples.size();
+            }
+
+            @Override
+            public int getPixelCount() {
+                return samples.isEmpty() ? 0 : samples.get(0).getPixelCount();
+            }
+
+            @Override
+            public int getClassCount() {
+                return classCount;
+            }
+
+            @Override
+            public int getLabel(int index) {
+                return samples.get(index).getValue();
+            }
+
+            @Override
+            public void getPixels(int index, double[] out, int offset) {
+                samples.get(index).copyPixels(out, offset);
+            }
+        };
+    }
+}
@@ -0,0 +1,305 @@
+package edu.akatarin;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+//Метрики обучения сети: NeuralNetwork.setMetrics(metrics) и metrics.register("mnist").
+//Поток обучения только накапливает значения в своих полях, раз в окно WINDOW_NANOS они
+//публикуются неизменяемым снимком через volatile, поэтому в горячем цикле нет ни блокировок, ни вывода.
+//Нормы весов и градиентов стоят полного прохода по весам и считаются только в пакете, закрывающем окно
+public class TrainingMetrics implements TrainingMetricsMBean {
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+    private static final double SMOOTHING = 0.05;
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final int layerCount;
+    private ObjectName objectName;
+
+    //накопители текущего окна, их пишет только поток обучения
+    private long windowStart;
+    private long lastBatchNanos;
+    private long batchStart;
+    private boolean closesWindow;
+    private long windowBatches;
+    private long windowSamples;
+    private long windowAllocated;
+    private long windowGradientNanos;
+    private final long[] forwardNanos;
+    private final long[] backwardNanos;
+    private final long[] updateNanos;
+    private final double[] gradientNorms;
+    private final double[] weightNorms;
+
+    //опубликованные значения
+    private volatile long batchCount;
+    private volatile long sampleCount;
+    private volatile double loss = Double.NaN;
+    private volatile double smoothedLoss = Double.NaN;
+    private volatile Window window;
+    private volatile boolean resetRequested;
+
+    public TrainingMetrics(NeuralNetwork network) {
+        layerCount = network.getLayers().length - 1;
+        forwardNanos = new long[layerCount];
+        backwardNanos = new long[layerCount];
+        updateNanos = new long[layerCount];
+        gradientNorms = new double[layerCount];
+        weightNorms = new double[layerCount];
+        window = new Window(layerCount);
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    //регистрирует метрики в платформенном MBeanServer как edu.akatarin:type=TrainingMetrics,name=<name>
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("edu.akatarin:type=TrainingMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register training metrics " + name, e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't unregister training metrics " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    int getLayerCount() {
+        return layerCount;
+    }
+
+    //начало пакета, возвращает true, если пакет закроет окно и в нем нужно посчитать нормы
+    boolean beginBatch() {
+        if (resetRequested) {
+            clear();
+        }
+        batchStart = System.nanoTime();
+        if (windowStart == 0) {
+            windowStart = batchStart;
+        }
+        closesWindow = batchStart + lastBatchNanos - windowStart >= WINDOW_NANOS;
+        return closesWindow;
+    }
+
+    void addForwardTime(int layer, long nanos) {
+        forwardNanos[layer] += nanos;
+    }
+
+    void addBackwardTime(int layer, long nanos) {
+        backwardNanos[layer] += nanos;
+    }
+
+    //время по часам прямого и обратного прохода всего пакета
+    void addGradientTime(long nanos) {
+        windowGradientNanos += nanos;
+    }
+
+    //байты, выделенные одним из потоков пакета, см. allocatedBytes
+    void addAllocatedBytes(long bytes) {
+        windowAllocated += bytes;
+    }
+
+    void addUpdateTime(int layer, long nanos) {
+        updateNanos[layer] += nanos;
+    }
+
+    void setNorms(int layer, double gradientNorm, double weightNorm) {
+        gradientNorms[layer] = gradientNorm;
+        weightNorms[layer] = weightNorm;
+    }
+
+    //конец пакета из samples примеров с суммарной стоимостью totalLoss
+    void endBatch(int samples, double totalLoss) {
+        long now = System.nanoTime();
+        lastBatchNanos = now - batchStart;
+        windowBatches++;
+        windowSamples += samples;
+        double batchLoss = totalLoss / samples;
+        double smoothed = smoothedLoss;
+        loss = batchLoss;
+        smoothedLoss = Double.isNaN(smoothed) ? batchLoss : smoothed + SMOOTHING * (batchLoss - smoothed);
+        sampleCount += samples;
+        batchCount++;
+        if (closesWindow) {
+            window = new Window(this, now - windowStart);
+            clearWindow(now);
+        }
+    }
+
+    private void clearWindow(long start) {
+        windowStart = start;
+        windowBatches = 0;
+        windowSamples = 0;
+        windowAllocated = 0;
+        windowGradientNanos = 0;
+        Arrays.fill(forwardNanos, 0);
+        Arrays.fill(backwardNanos, 0);
+        Arrays.fill(updateNanos, 0);
+    }
+
+    //байт, выделенных текущим потоком с его запуска, 0 если JVM этого не умеет.
+    //выделение за участок кода - разность значений в начале и в конце на одном и том же потоке
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private void clear() {
+        resetRequested = false;
+        clearWindow(0);
+        lastBatchNanos = 0;
+        batchCount = 0;
+        sampleCount = 0;
+        loss = Double.NaN;
+        smoothedLoss = Double.NaN;
+        window = new Window(layerCount);
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public double getSamplesPerSecond() {
+        return window.samplesPerSecond;
+    }
+
+    @Override
+    public double getBatchesPerSecond() {
+        return window.batchesPerSecond;
+    }
+
+    @Override
+    public double getLoss() {
+        return loss;
+    }
+
+    @Override
+    public double getSmoothedLoss() {
+        return smoothedLoss;
+    }
+
+    @Override
+    public double[] getForwardThreadMillis() {
+        return window.forwardMillis.clone();
+    }
+
+    @Override
+    public double[] getBackwardThreadMillis() {
+        return window.backwardMillis.clone();
+    }
+
+    @Override
+    public double getGradientMillis() {
+        return window.gradientMillis;
+    }
+
+    @Override
+    public double[] getUpdateMillis() {
+        return window.updateMillis.clone();
+    }
+
+    @Override
+    public double[] getGradientNorms() {
+        return window.gradientNorms.clone();
+    }
+
+    @Override
+    public double[] getWeightNorms() {
+        return window.weightNorms.clone();
+    }
+
+    @Override
+    public double getAllocatedBytesPerBatch() {
+        return window.allocatedBytesPerBatch;
+    }
+
+    //сброс выполняется потоком обучения в начале следующего пакета
+    @Override
+    public void reset() {
+        resetRequested = true;
+    }
+
+    @Override
+    public String toString() {
+        Window window = this.window;
+        return String.format("%d batches, %d samples, %.0f samples/s, %.1f batches/s, loss: %.6f, smoothed loss: %.6f",
+                batchCount, sampleCount, window.samplesPerSecond, window.batchesPerSecond, loss, smoothedLoss);
+    }
+
+    //значения за одно завершенное окно, после создания не меняются
+    private static final class Window {
+        private final double samplesPerSecond;
+        private final double batchesPerSecond;
+        private final double[] forwardMillis;
+        private final double[] backwardMillis;
+        private final double gradientMillis;
+        private final double[] updateMillis;
+        private final double[] gradientNorms;
+        private final double[] weightNorms;
+        private final double allocatedBytesPerBatch;
+
+        private Window(int layerCount) {
+            samplesPerSecond = 0;
+            batchesPerSecond = 0;
+            forwardMillis = new double[layerCount];
+            backwardMillis = new double[layerCount];
+            gradientMillis = 0;
+            updateMillis = new double[layerCount];
+            gradientNorms = new double[layerCount];
+            weightNorms = new double[layerCount];
+            allocatedBytesPerBatch = 0;
+        }
+
+        private Window(TrainingMetrics metrics, long elapsedNanos) {
+            long batches = metrics.windowBatches;
+            samplesPerSecond = metrics.windowSamples * 1e9 / elapsedNanos;
+            batchesPerSecond = batches * 1e9 / elapsedNanos;
+            forwardMillis = perBatchMillis(metrics.forwardNanos, batches);
+            backwardMillis = perBatchMillis(metrics.backwardNanos, batches);
+            gradientMillis = metrics.windowGradientNanos / 1e6 / batches;
+            updateMillis = perBatchMillis(metrics.updateNanos, batches);
+            gradientNorms = metrics.gradientNorms.clone();
+            weightNorms = metrics.weightNorms.clone();
+            allocatedBytesPerBatch = THREADS != null ? (double) metrics.windowAllocated / batches : -1;
+        }
+
+        private static double[] perBatchMillis(long[] nanos, long batches) {
+            double[] millis = new double[nanos.length];
+            for (int k = 0; k < nanos.length; k++) {
+                millis[k] = nanos[k] / 1e6 / batches;
+            }
+            return millis;
+        }
+    }
+}
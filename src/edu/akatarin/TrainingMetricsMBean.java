@@ -0,0 +1,42 @@
+package edu.akatarin;
+
+//Метрики обучения пакетами, доступные по JMX (jconsole, VisualVM и т.п.), см. TrainingMetrics.
+//Скорости, времена, нормы и выделение памяти - по последнему завершенному окну в ~1 с.
+//Значения по слоям - массивы по номеру слоя с весами: 0 - входной, далее скрытые
+public interface TrainingMetricsMBean {
+    long getBatchCount();
+
+    long getSampleCount();
+
+    double getSamplesPerSecond();
+
+    double getBatchesPerSecond();
+
+    //средняя стоимость на пример в последнем пакете
+    double getLoss();
+
+    //экспоненциальное скользящее среднее стоимости на пример
+    double getSmoothedLoss();
+
+    //среднее время прямого и обратного прохода слоев на пакет, мс, сложенное по потокам пула:
+    //при параллельном обучении части пакета считаются одновременно, и сумма больше времени по часам
+    double[] getForwardThreadMillis();
+
+    double[] getBackwardThreadMillis();
+
+    //среднее время по часам на прямой и обратный проход всего пакета, мс
+    double getGradientMillis();
+
+    //среднее время по часам на обновление весов слоев, мс
+    double[] getUpdateMillis();
+
+    //L2-норма среднего по пакету градиента весов
+    double[] getGradientNorms();
+
+    double[] getWeightNorms();
+
+    //байт, выделенных за пакет всеми потоками, которые его считали, -1 если JVM этого не умеет
+    double getAllocatedBytesPerBatch();
+
+    void reset();
+}
@@ -1,13 +1,19 @@
 package edu.akatarin.gui;
 
+import edu.akatarin.Batch;
+import edu.akatarin.BatchPipeline;
+import edu.akatarin.NeuralNetwork;
 import edu.akatarin.Number;
+import edu.akatarin.TrainingMetrics;
+import edu.akatarin.util.MNISTDataset;
 import edu.akatarin.util.MNISTLoader;
+import edu.akatarin.util.NetworkIO;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
-import java.util.Collections;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Random;
 
@@ -18,6 +24,8 @@ import java.util.Random;
  */
 public class ButtonPanel extends JPanel {
 
+    private static final String NETWORK_FILE = "data/network.dat";
+
     private final JLabel[] labels;
     private final Frame frame;
     private final JButton predictButton;
@@ -82,27 +90,27 @@ public class ButtonPanel extends JPanel {
      * Trains the network using MNIST data.
      */
     private void trainButtonActionPerformed() {
-        List<Number> numbers = MNISTLoader.importData("data/train");
+        // the pipeline reads samples straight from the mapped cache file
+        MNISTDataset train = MNISTLoader.openDataset("data/train");
         int batchSize = 10;
-        int epoch = 0;
-        int batchCount = numbers.size() / batchSize;
-        double[][] expectedOutputs = new double[batchSize][10];
-        double batchError;
-        do {
-            Collections.shuffle(numbers);
-            epoch++;
-            for (int i = 0; i < batchCount; i++) {
-                int fromIndex = i * batchSize;
-                int toIndex = Math.min(numbers.size(), (i + 1) * batchSize);
-                List<Number> batch = numbers.subList(fromIndex, toIndex);
-                for (int j = 0; j < batchSize; j++) {
-                    expectedOutputs[j] = batch.get(j).getIdealOut();
+        NeuralNetwork network = frame.getNet();
+        // progress is watched over JMX, the loop itself prints once per epoch
+        TrainingMetrics metrics = new TrainingMetrics(network);
+        network.setMetrics(metrics);
+        metrics.register("gui");
+        try (BatchPipeline pipeline = new BatchPipeline(train, batchSize, 4, 2)) {
+            int batchCount = pipeline.getBatchCount();
+            Batch batch;
+            while ((batch = pipeline.next()) != null) {
+                network.trainBatch(batch);
+                if (batch.getIndex() == batchCount - 1) {
+                    System.out.println("Epoch: " + batch.getEpoch() + " " + metrics);
                 }
-                double totalBatchError = frame.getNet().trainBatch(batch.toArray(new Number[batchSize]), expectedOutputs);
-                batchError = totalBatchError / batchSize;
-                System.out.print("\rEpoch: " + epoch + " Batch: " + i + " of " + batchCount + " ERROR: " + totalBatchError + " AVG ERR: " + batchError);
             }
-        } while ( epoch <= 3);
+        } finally {
+            network.setMetrics(null);
+            metrics.unregister();
+        }
     }
 
     /**
@@ -130,14 +138,27 @@ public class ButtonPanel extends JPanel {
      * Saves the current neural network.
      */
     private void saveButtonActionPerformed() {
-        //NetworkIO.saveNetwork("data/network.dat", frame.getNet());
+        try {
+            NetworkIO.saveNetwork(NETWORK_FILE, frame.getNet());
+            System.out.println("Network saved to " + NETWORK_FILE);
+        } catch (UncheckedIOException ex) {
+            System.out.println(ex.getMessage());
+        }
     }
 
     /**
      * Loads some saved neural network.
      */
     private void loadButtonActionPerformed() {
-        //frame.setNet(NetworkIO.loadNetwork("data/network.dat"));
+        try {
+            NeuralNetwork network = NetworkIO.loadNetwork(NETWORK_FILE);
+            // pixel inputs are mostly zero, the input layer skips them
+            network.getLayers()[0].withSparseInputs();
+            frame.setNet(network);
+            System.out.println("Network loaded from " + NETWORK_FILE);
+        } catch (UncheckedIOException ex) {
+            System.out.println(ex.getMessage());
+        }
     }
 
     /**
@@ -215,8 +236,7 @@ public class ButtonPanel extends JPanel {
             }
         }
         frame.repaint();
-        frame.getNet().feedForward(vector);
-        setLabels(frame.getNet().getOutput());
+        setLabels(frame.getNet().predict(vector));
     }
 
     /**
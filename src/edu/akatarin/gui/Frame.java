@@ -140,7 +140,7 @@ public class Frame extends JFrame {
      * @param args arguments passed
      */
     public static void main(String[] args) {
-        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL);
+        NeuronLayer input = new NeuronLayer(784, 800, Activation.Sigmoid, Initializer.XAVIER_NORMAL).withSparseInputs();
         NeuralNetwork neuralNetwork = NeuralNetworkBuilder.neuralNetworkBuilder()
                 .withInputLayer(input)
                 .addHiddenLayer(new NeuronLayer(800, 10, Activation.Sigmoid, Initializer.XAVIER_NORMAL))
@@ -0,0 +1,110 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.math.LinearAlgebra;
+
+//слой с разреженной матрицей весов в блочном формате CSR: матрица делится на блоки blockRows входов
+//x blockColumns соседних выходов, хранятся только блоки, где есть ненулевой вес, и столбцы, с которых они
+//начинаются. Для слоев, обрезанных NeuronLayer.prune с тем же блоком: работа и память пропорциональны числу
+//оставшихся блоков, полосы нулевых входов не читаются вовсе. При блоке 1 x 1 это обычный поэлементный CSR
+public final class CsrLayer implements InferenceLayer {
+    private final int size;
+    private final int nextSize;
+    private final int blockRows;
+    private final int blockColumns;
+    //блоки полосы входов g - номера p от rowStart[g] до rowStart[g + 1], блок p - строки по blockColumns
+    //весов values[p * blockRows * blockColumns..], начиная со столбца columns[p]; крайние дополнены нулями
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] values;
+    private final double[] biases;
+
+    public CsrLayer(NeuronLayer layer) {
+        this(layer, 1, 1);
+    }
+
+    public CsrLayer(NeuronLayer layer, int blockRows, int blockColumns) {
+        if (blockRows < 1 || blockColumns < 1) {
+            throw new IllegalArgumentException("Block must be positive: " + blockRows + "x" + blockColumns);
+        }
+        size = layer.getSize();
+        nextSize = layer.getNextSize();
+        this.blockRows = blockRows;
+        this.blockColumns = blockColumns;
+        biases = layer.getBiases().clone();
+        double[] weights = layer.getWeights();
+        int bands = (size + blockRows - 1) / blockRows;
+        int blockCount = 0;
+        for (int i = 0; i < size; i += blockRows) {
+            for (int j = 0; j < nextSize; j += blockColumns) {
+                blockCount += isZero(weights, i, j) ? 0 : 1;
+            }
+        }
+        rowStart = new int[bands + 1];
+        columns = new int[blockCount];
+        values = new double[blockCount * blockRows * blockColumns];
+        int p = 0;
+        for (int g = 0, i = 0; g < bands; g++, i += blockRows) {
+            rowStart[g] = p;
+            for (int j = 0; j < nextSize; j += blockColumns) {
+                if (isZero(weights, i, j)) {
+                    continue;
+                }
+                columns[p] = j;
+                int length = Math.min(blockColumns, nextSize - j);
+                for (int k = 0; k < blockRows && i + k < size; k++) {
+                    System.arraycopy(weights, (i + k) * nextSize + j, values,
+                            (p * blockRows + k) * blockColumns, length);
+                }
+                p++;
+            }
+        }
+        rowStart[bands] = p;
+    }
+
+    //все ли веса блока с левым верхним углом (i, j) нулевые
+    private boolean isZero(double[] weights, int i, int j) {
+        for (int k = i; k < Math.min(i + blockRows, size); k++) {
+            for (int l = j; l < Math.min(j + blockColumns, nextSize); l++) {
+                if (weights[k * nextSize + l] != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNextSize() {
+        return nextSize;
+    }
+
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    public int getBlockColumns() {
+        return blockColumns;
+    }
+
+    //число хранимых весов вместе с нулями внутри оставшихся блоков
+    public int getStoredWeightCount() {
+        return values.length;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        System.arraycopy(biases, 0, y, 0, nextSize);
+        LinearAlgebra.multiplyCsr(x, rowStart, columns, values, y, size, nextSize, blockRows, blockColumns);
+    }
+
+    @Override
+    public long getParameterBytes() {
+        return Integer.BYTES * ((long) rowStart.length + columns.length) + Double.BYTES * ((long) values.length + biases.length);
+    }
+}
@@ -0,0 +1,48 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.math.LinearAlgebra;
+
+//слой с весами double, как в NeuronLayer: эталон для сравнения сжатых слоев.
+//веса и смещения копируются, дальнейшее обучение исходного слоя на него не влияет
+public final class DenseLayer implements InferenceLayer {
+    private final int size;
+    private final int nextSize;
+    //size x nextSize построчно, как в NeuronLayer
+    private final double[] weights;
+    private final double[] biases;
+    private final boolean sparseInputs;
+
+    public DenseLayer(NeuronLayer layer) {
+        size = layer.getSize();
+        nextSize = layer.getNextSize();
+        weights = layer.getWeights().clone();
+        biases = layer.getBiases().clone();
+        sparseInputs = layer.hasSparseInputs();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNextSize() {
+        return nextSize;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        System.arraycopy(biases, 0, y, 0, nextSize);
+        if (sparseInputs) {
+            LinearAlgebra.multiplySparse(x, weights, y, 1, size, nextSize);
+        } else {
+            LinearAlgebra.multiply(x, weights, y, size, nextSize);
+        }
+    }
+
+    @Override
+    public long getParameterBytes() {
+        return Double.BYTES * ((long) weights.length + biases.length);
+    }
+}
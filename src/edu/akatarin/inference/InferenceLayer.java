@@ -0,0 +1,17 @@
+package edu.akatarin.inference;
+
+//Слой сети, подготовленный только для предсказания: отображение значений нейронов слоя (size)
+//во входы нейронов следующего слоя (nextSize), y = x * W + b. Активацию применяет InferenceNetwork.
+//apply не меняет состояние слоя, поэтому слой можно вызывать из нескольких потоков сразу
+public interface InferenceLayer {
+
+    int getSize();
+
+    int getNextSize();
+
+    //y = x * W + b, x - вектор длины size, y - длины nextSize
+    void apply(double[] x, double[] y);
+
+    //объем весов и смещений слоя в байтах
+    long getParameterBytes();
+}
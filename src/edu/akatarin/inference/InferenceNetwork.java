@@ -0,0 +1,122 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.Activation;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.math.LinearAlgebra;
+
+import java.util.function.Function;
+
+//Сеть только для предсказания, собранная из обученной NeuralNetwork: каждый слой с весами заменяется
+//своим InferenceLayer (сжатым или обычным), активации берутся у слоев исходной сети.
+//Слои не меняются при предсказании, буферы значений свои у каждого потока, поэтому сеть потокобезопасна
+public final class InferenceNetwork {
+    //CSR хранит блоки вразброс и с номерами столбцов, он выгоден только для заметно разреженных слоев
+    private static final double SPARSE_LAYER = 0.5;
+    private final InferenceLayer[] layers;
+    //activations[k] применяется к выходам слоя k, это активация нейронов слоя k + 1 исходной сети
+    private final Activation[] activations;
+    //values[0] - входы, values[k + 1] - выходы слоя k
+    private final ThreadLocal<double[][]> values;
+
+    //compiler переводит каждый слой исходной сети, кроме выходного, в слой для предсказания
+    public InferenceNetwork(NeuralNetwork network, Function<NeuronLayer, InferenceLayer> compiler) {
+        NeuronLayer[] source = network.getLayers();
+        layers = new InferenceLayer[source.length - 1];
+        activations = new Activation[source.length - 1];
+        for (int k = 0; k < layers.length; k++) {
+            layers[k] = compiler.apply(source[k]);
+            activations[k] = source[k + 1].getActivation();
+        }
+        values = ThreadLocal.withInitial(this::newValues);
+    }
+
+    //сеть из готовых слоев, например MappedLayer загруженного файла: activations[k] применяется к выходам слоя k
+    public InferenceNetwork(InferenceLayer[] layers, Activation[] activations) {
+        if (layers.length == 0 || layers.length != activations.length) {
+            throw new IllegalArgumentException("Expected one activation per layer: "
+                    + layers.length + " layers, " + activations.length + " activations");
+        }
+        for (int k = 1; k < layers.length; k++) {
+            if (layers[k].getSize() != layers[k - 1].getNextSize()) {
+                throw new IllegalArgumentException("Layer " + k + " size " + layers[k].getSize()
+                        + " doesn't match previous layer output " + layers[k - 1].getNextSize());
+            }
+        }
+        this.layers = layers.clone();
+        this.activations = activations.clone();
+        values = ThreadLocal.withInitial(this::newValues);
+    }
+
+    //обычная сеть с весами double, эталон для сравнения
+    public static InferenceNetwork dense(NeuralNetwork network) {
+        return new InferenceNetwork(network, DenseLayer::new);
+    }
+
+    //все слои с весами int8, см. QuantizedLayer
+    public static InferenceNetwork quantized(NeuralNetwork network, QuantizedLayer.Granularity granularity) {
+        return new InferenceNetwork(network, layer -> new QuantizedLayer(layer, granularity));
+    }
+
+    //слои, у которых нулевых весов не меньше SPARSE_LAYER (обрезанные Pruning), - в CSR с блоками
+    //blockRows x blockColumns, остальные обычные
+    public static InferenceNetwork sparse(NeuralNetwork network, int blockRows, int blockColumns) {
+        return new InferenceNetwork(network, layer -> layer.getSparsity() >= SPARSE_LAYER
+                ? new CsrLayer(layer, blockRows, blockColumns) : new DenseLayer(layer));
+    }
+
+    private double[][] newValues() {
+        double[][] result = new double[layers.length + 1][];
+        result[0] = new double[layers[0].getSize()];
+        for (int k = 0; k < layers.length; k++) {
+            result[k + 1] = new double[layers[k].getNextSize()];
+        }
+        return result;
+    }
+
+    public InferenceLayer[] getLayers() {
+        return layers.clone();
+    }
+
+    //объем параметров всех слоев в байтах
+    public long getParameterBytes() {
+        long bytes = 0;
+        for (InferenceLayer layer : layers) {
+            bytes += layer.getParameterBytes();
+        }
+        return bytes;
+    }
+
+    public double[] predict(double[] input) {
+        return predictLayers(input, values.get()).clone();
+    }
+
+    public double[] predict(Number number) {
+        double[][] buffers = values.get();
+        number.copyPixels(buffers[0], 0);
+        return predictLayers(buffers[0], buffers).clone();
+    }
+
+    //номер выхода с наибольшим значением
+    public int predictClass(double[] input) {
+        return LinearAlgebra.argMax(predictLayers(input, values.get()));
+    }
+
+    public int predictClass(Number number) {
+        double[][] buffers = values.get();
+        number.copyPixels(buffers[0], 0);
+        return LinearAlgebra.argMax(predictLayers(buffers[0], buffers));
+    }
+
+    //возвращает выходной буфер потока, он перезаписывается следующим вызовом
+    private double[] predictLayers(double[] inputs, double[][] buffers) {
+        for (int k = 0; k < layers.length; k++) {
+            double[] outputs = buffers[k + 1];
+            layers[k].apply(inputs, outputs);
+            activations[k].apply(outputs, outputs);
+            inputs = outputs;
+        }
+        return inputs;
+    }
+}
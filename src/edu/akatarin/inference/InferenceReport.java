@@ -0,0 +1,153 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.Number;
+import edu.akatarin.math.LinearAlgebra;
+import edu.akatarin.util.MNISTLoader;
+import edu.akatarin.util.NetworkIO;
+
+import java.util.List;
+
+//Сравнение сети для предсказания с эталонной сетью double на наборе примеров: точность обеих,
+//доля совпавших ответов, наибольшее отклонение выходов, объем параметров и время предсказания на пример.
+//Время меряется в одном потоке на втором проходе по примерам, первый проход - прогрев
+public final class InferenceReport {
+    private final String name;
+    private final long sampleCount;
+    private final double referenceAccuracy;
+    private final double accuracy;
+    private final double agreement;
+    private final double maxOutputDifference;
+    private final long referenceBytes;
+    private final long bytes;
+    private final double referenceMicros;
+    private final double micros;
+
+    private InferenceReport(String name, long sampleCount, double referenceAccuracy, double accuracy, double agreement,
+                            double maxOutputDifference, long referenceBytes, long bytes,
+                            double referenceMicros, double micros) {
+        this.name = name;
+        this.sampleCount = sampleCount;
+        this.referenceAccuracy = referenceAccuracy;
+        this.accuracy = accuracy;
+        this.agreement = agreement;
+        this.maxOutputDifference = maxOutputDifference;
+        this.referenceBytes = referenceBytes;
+        this.bytes = bytes;
+        this.referenceMicros = referenceMicros;
+        this.micros = micros;
+    }
+
+    public static InferenceReport compare(String name, NeuralNetwork network, InferenceNetwork inference,
+                                          List<Number> samples) {
+        return compare(name, InferenceNetwork.dense(network), inference, samples);
+    }
+
+    //reference - эталон, обычно InferenceNetwork.dense исходной сети, снятый до ее изменения (например, обрезки)
+    public static InferenceReport compare(String name, InferenceNetwork reference, InferenceNetwork inference,
+                                          List<Number> samples) {
+        double[][] inputs = new double[samples.size()][];
+        for (int n = 0; n < inputs.length; n++) {
+            inputs[n] = samples.get(n).getPixels();
+        }
+        long referenceCorrect = 0;
+        long correct = 0;
+        long agreed = 0;
+        double maxDifference = 0;
+        for (int n = 0; n < inputs.length; n++) {
+            double[] expected = reference.predict(inputs[n]);
+            double[] actual = inference.predict(inputs[n]);
+            int expectedClass = LinearAlgebra.argMax(expected);
+            int actualClass = LinearAlgebra.argMax(actual);
+            int value = samples.get(n).getValue();
+            referenceCorrect += expectedClass == value ? 1 : 0;
+            correct += actualClass == value ? 1 : 0;
+            agreed += expectedClass == actualClass ? 1 : 0;
+            for (int j = 0; j < actual.length; j++) {
+                maxDifference = Math.max(maxDifference, Math.abs(expected[j] - actual[j]));
+            }
+        }
+        long start = System.nanoTime();
+        for (double[] input : inputs) {
+            reference.predictClass(input);
+        }
+        long referenceNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (double[] input : inputs) {
+            inference.predictClass(input);
+        }
+        long nanos = System.nanoTime() - start;
+        int count = Math.max(1, inputs.length);
+        return new InferenceReport(name, inputs.length, (double) referenceCorrect / count, (double) correct / count,
+                (double) agreed / count, maxDifference, reference.getParameterBytes(), inference.getParameterBytes(),
+                referenceNanos / 1e3 / count, nanos / 1e3 / count);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public double getReferenceAccuracy() {
+        return referenceAccuracy;
+    }
+
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    //доля примеров, на которых ответ совпал с ответом исходной сети
+    public double getAgreement() {
+        return agreement;
+    }
+
+    public double getMaxOutputDifference() {
+        return maxOutputDifference;
+    }
+
+    public long getReferenceBytes() {
+        return referenceBytes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getReferenceMicros() {
+        return referenceMicros;
+    }
+
+    public double getMicros() {
+        return micros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: accuracy %.4f (double %.4f, %+.4f), agreement %.4f, max output difference %.5f, "
+                        + "%.1f KB (double %.1f KB, x%.1f smaller), %.1f us/sample (double %.1f us, x%.1f faster)",
+                name, accuracy, referenceAccuracy, accuracy - referenceAccuracy, agreement, maxOutputDifference,
+                bytes / 1024.0, referenceBytes / 1024.0, (double) referenceBytes / bytes,
+                micros, referenceMicros, referenceMicros / micros);
+    }
+
+    //отчет по сохраненной сети: java edu.akatarin.inference.InferenceReport [файл сети] [набор примеров]
+    public static void main(String[] args) {
+        String fileName = args.length > 0 ? args[0] : "data/network.dat";
+        NeuralNetwork network = NetworkIO.loadNetwork(fileName);
+        List<Number> samples = MNISTLoader.importData(args.length > 1 ? args[1] : "data/t10k");
+        //веса читаются прямо из отображенного файла, ответы должны совпасть с загруженной сетью
+        System.out.println(compare("mapped file", network, NetworkIO.mapNetwork(fileName), samples));
+        printQuantizationReport(network, samples);
+    }
+
+    //int8 с масштабом на строку и на слой против исходной сети
+    public static void printQuantizationReport(NeuralNetwork network, List<Number> samples) {
+        System.out.println(compare("int8, scale per row", network,
+                InferenceNetwork.quantized(network, QuantizedLayer.Granularity.ROW), samples));
+        System.out.println(compare("int8, scale per layer", network,
+                InferenceNetwork.quantized(network, QuantizedLayer.Granularity.LAYER), samples));
+    }
+}
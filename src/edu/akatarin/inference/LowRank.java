@@ -0,0 +1,88 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.math.TruncatedSvd;
+
+import java.util.List;
+
+//Сжатие слоя обученной сети заменой матрицы весов на произведение двух узких матриц, см. LowRankLayer.
+//Ранг задается явно или подбирается по допустимому падению точности на проверочном наборе.
+//Исходная сеть не меняется
+public final class LowRank {
+
+    private LowRank() {
+    }
+
+    //наибольший ранг, при котором разложение слоя занимает меньше места, чем его матрица
+    public static int getMaxRank(NeuronLayer layer) {
+        int size = layer.getSize();
+        int nextSize = layer.getNextSize();
+        return Math.max(0, Math.min((size * nextSize - 1) / (size + nextSize), Math.min(size, nextSize)));
+    }
+
+    //сеть, в которой слой с номером layer заменен LowRankLayer ранга rank, остальные слои обычные
+    public static InferenceNetwork compress(NeuralNetwork network, int layer, int rank) {
+        NeuronLayer target = network.getLayers()[layer];
+        return compress(network, target, TruncatedSvd.of(target.getWeights(), target.getSize(), target.getNextSize(), rank), rank);
+    }
+
+    //то же с наименьшим рангом из selectRank; если такого нет, все слои остаются обычными
+    public static InferenceNetwork compress(NeuralNetwork network, int layer, List<Number> validation,
+                                            double accuracyBudget) {
+        NeuronLayer target = network.getLayers()[layer];
+        int maxRank = getMaxRank(target);
+        if (maxRank == 0) {
+            return InferenceNetwork.dense(network);
+        }
+        TruncatedSvd svd = TruncatedSvd.of(target.getWeights(), target.getSize(), target.getNextSize(), maxRank);
+        int rank = selectRank(network, target, svd, validation, accuracyBudget);
+        return rank == 0 ? InferenceNetwork.dense(network) : compress(network, target, svd, rank);
+    }
+
+    //наименьший ранг слоя layer, при котором точность на validation ниже точности исходной сети не больше,
+    //чем на accuracyBudget (доля примеров, например 0.005). 0, если этого не достигает и getMaxRank
+    public static int selectRank(NeuralNetwork network, int layer, List<Number> validation, double accuracyBudget) {
+        NeuronLayer target = network.getLayers()[layer];
+        int maxRank = getMaxRank(target);
+        if (maxRank == 0) {
+            return 0;
+        }
+        TruncatedSvd svd = TruncatedSvd.of(target.getWeights(), target.getSize(), target.getNextSize(), maxRank);
+        return selectRank(network, target, svd, validation, accuracyBudget);
+    }
+
+    //двоичный поиск по рангу: точность с ростом ранга в целом растет, разложение считается один раз
+    private static int selectRank(NeuralNetwork network, NeuronLayer target, TruncatedSvd svd,
+                                  List<Number> validation, double accuracyBudget) {
+        double required = accuracy(InferenceNetwork.dense(network), validation) - accuracyBudget;
+        int low = 1;
+        int high = svd.getRank();
+        if (accuracy(compress(network, target, svd, high), validation) < required) {
+            return 0;
+        }
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (accuracy(compress(network, target, svd, middle), validation) >= required) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return high;
+    }
+
+    private static InferenceNetwork compress(NeuralNetwork network, NeuronLayer target, TruncatedSvd svd, int rank) {
+        return new InferenceNetwork(network,
+                layer -> layer == target ? new LowRankLayer(layer, svd, rank) : new DenseLayer(layer));
+    }
+
+    private static double accuracy(InferenceNetwork network, List<Number> samples) {
+        long correct = 0;
+        for (Number sample : samples) {
+            correct += network.predictClass(sample) == sample.getValue() ? 1 : 0;
+        }
+        return (double) correct / Math.max(1, samples.size());
+    }
+}
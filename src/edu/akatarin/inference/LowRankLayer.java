@@ -0,0 +1,75 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.math.LinearAlgebra;
+import edu.akatarin.math.TruncatedSvd;
+
+import java.util.Arrays;
+
+//слой с матрицей весов ранга rank в виде произведения двух узких матриц W ≈ L * R (усеченное SVD):
+//L - size x rank, R - rank x nextSize. Вход проходит через них по очереди, y = (x * L) * R + b,
+//работа и память rank * (size + nextSize) вместо size * nextSize
+public final class LowRankLayer implements InferenceLayer {
+    private final int size;
+    private final int nextSize;
+    private final int rank;
+    //size x rank и rank x nextSize построчно
+    private final double[] left;
+    private final double[] right;
+    private final double[] biases;
+    private final boolean sparseInputs;
+    //промежуточный вектор x * L длины rank, свой у каждого потока
+    private final ThreadLocal<double[]> hidden;
+
+    public LowRankLayer(NeuronLayer layer, int rank) {
+        this(layer, TruncatedSvd.of(layer.getWeights(), layer.getSize(), layer.getNextSize(), rank), rank);
+    }
+
+    //svd - разложение весов layer ранга не меньше rank, одно на несколько слоев разных рангов
+    public LowRankLayer(NeuronLayer layer, TruncatedSvd svd, int rank) {
+        size = layer.getSize();
+        nextSize = layer.getNextSize();
+        if (svd.getRows() != size || svd.getCols() != nextSize) {
+            throw new IllegalArgumentException("Decomposition " + svd.getRows() + "x" + svd.getCols()
+                    + " does not match layer " + size + "x" + nextSize);
+        }
+        this.rank = rank;
+        left = svd.getLeft(rank);
+        right = svd.getRight(rank);
+        biases = layer.getBiases().clone();
+        sparseInputs = layer.hasSparseInputs();
+        hidden = ThreadLocal.withInitial(() -> new double[rank]);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNextSize() {
+        return nextSize;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        double[] h = hidden.get();
+        Arrays.fill(h, 0);
+        if (sparseInputs) {
+            LinearAlgebra.multiplySparse(x, left, h, 1, size, rank);
+        } else {
+            LinearAlgebra.multiply(x, left, h, size, rank);
+        }
+        System.arraycopy(biases, 0, y, 0, nextSize);
+        LinearAlgebra.multiply(h, right, y, rank, nextSize);
+    }
+
+    @Override
+    public long getParameterBytes() {
+        return Double.BYTES * ((long) left.length + right.length + biases.length);
+    }
+}
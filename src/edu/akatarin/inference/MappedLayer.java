@@ -0,0 +1,59 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.math.LinearAlgebra;
+
+import java.nio.ByteBuffer;
+
+//слой, веса и смещения которого читаются прямо из буфера, обычно отображенного в память файла сети
+//(см. NetworkIO.mapNetwork): в куче они не копируются, и процессы с одной моделью делят страницы page cache.
+//Смещения - nextSize double, веса - size x nextSize построчно, double или float. Буфер только читается
+public final class MappedLayer implements InferenceLayer {
+    private final int size;
+    private final int nextSize;
+    private final ByteBuffer buffer;
+    private final int biasOffset;
+    private final int weightOffset;
+    private final boolean floatWeights;
+
+    public MappedLayer(ByteBuffer buffer, int size, int nextSize, int biasOffset, int weightOffset,
+                       boolean floatWeights) {
+        int weightBytes = floatWeights ? Float.BYTES : Double.BYTES;
+        if (biasOffset < 0 || weightOffset < 0 || (long) biasOffset + (long) nextSize * Double.BYTES > buffer.limit()
+                || (long) weightOffset + (long) size * nextSize * weightBytes > buffer.limit()) {
+            throw new IllegalArgumentException("Layer " + size + "x" + nextSize + " doesn't fit the buffer");
+        }
+        this.size = size;
+        this.nextSize = nextSize;
+        this.buffer = buffer;
+        this.biasOffset = biasOffset;
+        this.weightOffset = weightOffset;
+        this.floatWeights = floatWeights;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNextSize() {
+        return nextSize;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        for (int j = 0; j < nextSize; j++) {
+            y[j] = buffer.getDouble(biasOffset + j * Double.BYTES);
+        }
+        if (floatWeights) {
+            LinearAlgebra.multiplyFloats(x, buffer, weightOffset, y, size, nextSize);
+        } else {
+            LinearAlgebra.multiplyDoubles(x, buffer, weightOffset, y, size, nextSize);
+        }
+    }
+
+    @Override
+    public long getParameterBytes() {
+        return (long) size * nextSize * (floatWeights ? Float.BYTES : Double.BYTES) + (long) nextSize * Double.BYTES;
+    }
+}
@@ -0,0 +1,50 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.Batch;
+import edu.akatarin.BatchPipeline;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Number;
+import edu.akatarin.SampleSource;
+
+import java.util.List;
+
+//Магнитудная обрезка слоев обученной сети перед переводом в CSR, см. InferenceNetwork.sparse.
+//Сеть меняется на месте, поэтому эталон для сравнения (InferenceNetwork.dense) снимается до обрезки
+public final class Pruning {
+
+    private Pruning() {
+    }
+
+    //разовая обрезка слоя с номером layer до доли нулевых блоков blockRows x blockColumns sparsity, без дообучения
+    public static void prune(NeuralNetwork network, int layer, double sparsity, int blockRows, int blockColumns) {
+        network.getLayers()[layer].prune(sparsity, blockRows, blockColumns);
+    }
+
+    //постепенная обрезка с дообучением: за epochs эпох доля нулевых блоков растет равными шагами до sparsity,
+    //перед каждой эпохой слой обрезается, затем сеть учится эпоху на samples пакетами по batchSize.
+    //обнуленные веса при обучении остаются нулями
+    public static void prune(NeuralNetwork network, int layer, double sparsity, int blockRows, int blockColumns,
+                             List<Number> samples, int batchSize, int epochs) {
+        prune(network, layer, sparsity, blockRows, blockColumns, SampleSource.of(samples), batchSize, epochs);
+    }
+
+    //то же на наборе, который читается по примеру, например MNISTDataset
+    public static void prune(NeuralNetwork network, int layer, double sparsity, int blockRows, int blockColumns,
+                             SampleSource samples, int batchSize, int epochs) {
+        NeuronLayer target = network.getLayers()[layer];
+        if (epochs <= 0) {
+            target.prune(sparsity, blockRows, blockColumns);
+            return;
+        }
+        try (BatchPipeline pipeline = new BatchPipeline(samples, batchSize, epochs, 2)) {
+            Batch batch;
+            while ((batch = pipeline.next()) != null) {
+                if (batch.getIndex() == 0) {
+                    target.prune(sparsity * batch.getEpoch() / epochs, blockRows, blockColumns);
+                }
+                network.trainBatch(batch);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package edu.akatarin.inference;
+
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.math.LinearAlgebra;
+
+import java.util.Arrays;
+
+//int8-слой: вес w хранится байтом q в [-127, 127], w = scale * q, масштаб свой у каждого столбца
+//(нейрона следующего слоя) или один на слой. Входы квантуются при каждом вызове симметрично по их наибольшему
+//модулю, x = inputScale * qx. Строки весов входов с qx != 0 складываются в int-суммы: sum[j] = ∑ qx[i] * q[i][j],
+//y[j] = b[j] + inputScale * scale[j] * sum[j]. Нулевые входы (пиксели фона, неактивные ReLU) пропускаются.
+//У узкого слоя строки короче нескольких векторов, его матрица хранится транспонированной
+//и суммы считаются целочисленными скалярными произведениями столбцов на квантованный вход
+public final class QuantizedLayer implements InferenceLayer {
+    private static final int LEVELS = 127;
+    private static final int NARROW = 64;
+
+    //ROW - масштаб на каждый нейрон следующего слоя (столбец матрицы весов), LAYER - один масштаб на весь слой
+    public enum Granularity {
+        ROW, LAYER
+    }
+
+    private final int size;
+    private final int nextSize;
+    //size x nextSize построчно, как в NeuronLayer, у узкого слоя - nextSize x size
+    private final byte[] weights;
+    private final boolean transposed;
+    //nextSize масштабов при ROW, один при LAYER
+    private final double[] scales;
+    private final double[] biases;
+    //целочисленные суммы и квантованные входы, свои у каждого потока
+    private final ThreadLocal<int[]> sums;
+    private final ThreadLocal<byte[]> quantizedInputs;
+
+    public QuantizedLayer(NeuronLayer layer, Granularity granularity) {
+        size = layer.getSize();
+        nextSize = layer.getNextSize();
+        biases = layer.getBiases().clone();
+        double[] source = layer.getWeights();
+        double[] max = new double[nextSize];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < nextSize; j++) {
+                max[j] = Math.max(max[j], Math.abs(source[i * nextSize + j]));
+            }
+        }
+        if (granularity == Granularity.LAYER) {
+            double layerMax = 0;
+            for (double m : max) {
+                layerMax = Math.max(layerMax, m);
+            }
+            scales = new double[]{layerMax / LEVELS};
+        } else {
+            scales = new double[nextSize];
+            for (int j = 0; j < nextSize; j++) {
+                scales[j] = max[j] / LEVELS;
+            }
+        }
+        transposed = nextSize < NARROW;
+        weights = new byte[size * nextSize];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < nextSize; j++) {
+                double scale = scale(j);
+                if (scale != 0) {
+                    int index = transposed ? j * size + i : i * nextSize + j;
+                    weights[index] = (byte) Math.round(source[i * nextSize + j] / scale);
+                }
+            }
+        }
+        sums = ThreadLocal.withInitial(() -> new int[nextSize]);
+        quantizedInputs = ThreadLocal.withInitial(() -> new byte[size]);
+    }
+
+    private double scale(int column) {
+        return scales.length == 1 ? scales[0] : scales[column];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getNextSize() {
+        return nextSize;
+    }
+
+    @Override
+    public void apply(double[] x, double[] y) {
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, Math.abs(x[i]));
+        }
+        if (max == 0) {
+            System.arraycopy(biases, 0, y, 0, nextSize);
+            return;
+        }
+        int[] sum = sums.get();
+        double inverseScale = LEVELS / max;
+        if (transposed) {
+            byte[] qx = quantizedInputs.get();
+            for (int i = 0; i < size; i++) {
+                qx[i] = (byte) Math.round(x[i] * inverseScale);
+            }
+            for (int j = 0; j < nextSize; j++) {
+                sum[j] = LinearAlgebra.dot(qx, 0, weights, j * size, size);
+            }
+        } else {
+            accumulateRows(x, inverseScale, sum);
+        }
+        double inputScale = max / LEVELS;
+        for (int j = 0; j < nextSize; j++) {
+            y[j] = biases[j] + inputScale * scale(j) * sum[j];
+        }
+    }
+
+    //sum = ∑ qx[i] * (строка i), нулевые входы пропускаются, ненулевые идут парами:
+    //строка первого из пары ждет второй в pending
+    private void accumulateRows(double[] x, double inverseScale, int[] sum) {
+        Arrays.fill(sum, 0);
+        int pending = -1;
+        int pendingValue = 0;
+        for (int i = 0; i < size; i++) {
+            int qx = (int) Math.round(x[i] * inverseScale);
+            if (qx == 0) {
+                continue;
+            }
+            if (pending < 0) {
+                pending = i;
+                pendingValue = qx;
+            } else {
+                LinearAlgebra.axpy2(pendingValue, qx, weights, pending * nextSize, i * nextSize, sum, 0, nextSize);
+                pending = -1;
+            }
+        }
+        if (pending >= 0) {
+            LinearAlgebra.axpy(pendingValue, weights, pending * nextSize, sum, 0, nextSize);
+        }
+    }
+
+    @Override
+    public long getParameterBytes() {
+        return weights.length + Double.BYTES * ((long) scales.length + biases.length);
+    }
+}
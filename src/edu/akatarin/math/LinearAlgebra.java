@@ -0,0 +1,1134 @@
+package edu.akatarin.math;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//Ядра линейной алгебры для слоев сети. Все матрицы хранятся построчно в одномерных массивах:
+//элемент (i, j) матрицы rows x cols лежит в [i * cols + j].
+//Пакетные варианты работают с матрицей batch x rows (или batch x cols), по строке на пример.
+//Варианты с float[] A и double-векторами читают веса одинарной точности, суммы при этом накапливаются в double.
+//Варианты, где все матрицы float, считают пакет целиком в одинарной точности.
+public final class LinearAlgebra {
+    //блок матрицы весов BLOCK_ROWS x BLOCK_COLS (256 Кб) остается в кэше, пока через него проходят
+    //BLOCK_BATCH строк пакета, а отрезок строки результата длиной BLOCK_COLS - в L1
+    private static final int BLOCK_BATCH = 32;
+    private static final int BLOCK_ROWS = 128;
+    private static final int BLOCK_COLS = 256;
+    //SIMD-ядра из VectorKernels включаются, если JVM запущена с --add-modules jdk.incubator.vector
+    //и они не отключены флагом -Dedu.akatarin.vector=false, иначе остаются скалярные циклы
+    private static final boolean VECTORIZED = vectorKernelsAvailable();
+    //буферы сжатой строки для разреженных ядер
+    private static final ThreadLocal<SparseRow> SPARSE_ROW = ThreadLocal.withInitial(SparseRow::new);
+
+    private LinearAlgebra() {
+    }
+
+    //true, если ядра работают через Vector API
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    private static boolean vectorKernelsAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("edu.akatarin.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            //на вектор из одного элемента переходить нет смысла
+            return VectorKernels.lanes() > 1;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    //y += x * A, x - вектор длины rows, A - rows x cols, y - вектор длины cols
+    public static void multiply(double[] x, double[] a, double[] y, int rows, int cols) {
+        multiply(x, a, y, 1, rows, cols);
+    }
+
+    //y = d * A^T, d - вектор длины cols, A - rows x cols, y - вектор длины rows
+    public static void multiplyTransposed(double[] d, double[] a, double[] y, int rows, int cols) {
+        multiplyTransposed(d, a, y, 1, rows, cols);
+    }
+
+    //A += x ⊗ d, x - вектор длины rows, d - вектор длины cols
+    public static void addOuterProduct(double[] x, double[] d, double[] a, int rows, int cols) {
+        addTransposedProduct(x, d, a, 1, rows, cols);
+    }
+
+    //Y += X * A, X - batch x rows, A - rows x cols, Y - batch x cols
+    public static void multiply(double[] x, double[] a, double[] y, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int yRow = s * cols + jj;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            axpy4(x[xRow + k], x[xRow + k + 1], x[xRow + k + 2], x[xRow + k + 3],
+                                    a, k * cols + jj, cols, y, yRow, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            axpy(x[xRow + k], a, k * cols + jj, y, yRow, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Y = D * A^T, D - batch x cols, A - rows x cols, Y - batch x rows
+    public static void multiplyTransposed(double[] d, double[] a, double[] y, int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int dRow = s * cols + jj;
+                        int yRow = s * rows;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            dot4(d, dRow, a, k * cols + jj, cols, y, yRow + k, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            y[yRow + k] += dot(d, dRow, a, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //G += X^T * D, X - batch x rows, D - batch x cols, G - rows x cols
+    public static void addTransposedProduct(double[] x, double[] d, double[] g, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    int s = ss;
+                    for (; s + 3 < sEnd; s += 4) {
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy4(x[s * rows + k], x[(s + 1) * rows + k], x[(s + 2) * rows + k], x[(s + 3) * rows + k],
+                                    d, dRow, cols, g, k * cols + jj, width);
+                        }
+                    }
+                    for (; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy(x[xRow + k], d, dRow, g, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //y += x * A для весов одинарной точности
+    public static void multiply(double[] x, float[] a, double[] y, int rows, int cols) {
+        multiply(x, a, y, 1, rows, cols);
+    }
+
+    //y = d * A^T для весов одинарной точности
+    public static void multiplyTransposed(double[] d, float[] a, double[] y, int rows, int cols) {
+        multiplyTransposed(d, a, y, 1, rows, cols);
+    }
+
+    //Y += X * A для весов одинарной точности
+    public static void multiply(double[] x, float[] a, double[] y, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int yRow = s * cols + jj;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            axpy4(x[xRow + k], x[xRow + k + 1], x[xRow + k + 2], x[xRow + k + 3],
+                                    a, k * cols + jj, cols, y, yRow, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            axpy(x[xRow + k], a, k * cols + jj, y, yRow, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Y = D * A^T для весов одинарной точности
+    public static void multiplyTransposed(double[] d, float[] a, double[] y, int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int dRow = s * cols + jj;
+                        int yRow = s * rows;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            dot4(d, dRow, a, k * cols + jj, cols, y, yRow + k, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            y[yRow + k] += dot(d, dRow, a, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //y += x * A, где x задан байтами: x[k] = lookup[bytes[xOffset + k] & 0xFF], без промежуточного массива
+    public static void multiply(byte[] x, int xOffset, double[] lookup, double[] a, double[] y, int rows, int cols) {
+        int k = 0;
+        for (; k + 3 < rows; k += 4) {
+            axpy4(lookup[x[xOffset + k] & 0xFF], lookup[x[xOffset + k + 1] & 0xFF],
+                    lookup[x[xOffset + k + 2] & 0xFF], lookup[x[xOffset + k + 3] & 0xFF],
+                    a, k * cols, cols, y, 0, cols);
+        }
+        for (; k < rows; k++) {
+            axpy(lookup[x[xOffset + k] & 0xFF], a, k * cols, y, 0, cols);
+        }
+    }
+
+    //y += x * A для байтового x и весов одинарной точности
+    public static void multiply(byte[] x, int xOffset, double[] lookup, float[] a, double[] y, int rows, int cols) {
+        int k = 0;
+        for (; k + 3 < rows; k += 4) {
+            axpy4(lookup[x[xOffset + k] & 0xFF], lookup[x[xOffset + k + 1] & 0xFF],
+                    lookup[x[xOffset + k + 2] & 0xFF], lookup[x[xOffset + k + 3] & 0xFF],
+                    a, k * cols, cols, y, 0, cols);
+        }
+        for (; k < rows; k++) {
+            axpy(lookup[x[xOffset + k] & 0xFF], a, k * cols, y, 0, cols);
+        }
+    }
+
+    //G += X^T * D для градиентов одинарной точности: вклад четырех примеров суммируется в double
+    //и округляется до float один раз
+    public static void addTransposedProduct(double[] x, double[] d, float[] g, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    int s = ss;
+                    for (; s + 3 < sEnd; s += 4) {
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy4(x[s * rows + k], x[(s + 1) * rows + k], x[(s + 2) * rows + k], x[(s + 3) * rows + k],
+                                    d, dRow, cols, g, k * cols + jj, width);
+                        }
+                    }
+                    for (; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy(x[xRow + k], d, dRow, g, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Варианты для весов вне кучи, например в отображенном в память файле: A - rows x cols построчно в буфере a
+    //с байта offset, порядок байтов - a.order(). Буфер читается по абсолютным индексам и его позиция не меняется,
+    //поэтому ядра можно вызывать из нескольких потоков. Строки A для нулевых x[k] не читаются
+
+    //y += x * A, элементы A - double
+    public static void multiplyDoubles(double[] x, ByteBuffer a, int offset, double[] y, int rows, int cols) {
+        for (int k = 0; k < rows; k++) {
+            if (x[k] != 0) {
+                axpyDoubles(x[k], a, offset + k * cols * Double.BYTES, y, cols);
+            }
+        }
+    }
+
+    //y += x * A, элементы A - float
+    public static void multiplyFloats(double[] x, ByteBuffer a, int offset, double[] y, int rows, int cols) {
+        for (int k = 0; k < rows; k++) {
+            if (x[k] != 0) {
+                axpyFloats(x[k], a, offset + k * cols * Float.BYTES, y, cols);
+            }
+        }
+    }
+
+    private static void axpyDoubles(double alpha, ByteBuffer a, int offset, double[] y, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpyDoubles(alpha, a, offset, y, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[j] += alpha * a.getDouble(offset + j * Double.BYTES);
+        }
+    }
+
+    private static void axpyFloats(double alpha, ByteBuffer a, int offset, double[] y, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpyFloats(alpha, a, offset, y, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[j] += alpha * a.getFloat(offset + j * Float.BYTES);
+        }
+    }
+
+    //Разреженные варианты для входов, в которых много нулей (пиксели MNIST): строка входа сначала
+    //сжимается в индексы и значения ненулевых элементов, и через веса проходят только их строки.
+    //Буферы сжатой строки свои у каждого потока, поэтому ядра можно вызывать параллельно
+
+    //Y += X * A по ненулевым элементам X
+    public static void multiplySparse(double[] x, double[] a, double[] y, int batch, int rows, int cols) {
+        SparseRow row = SPARSE_ROW.get();
+        for (int s = 0; s < batch; s++) {
+            row.gather(x, s * rows, rows);
+            row.multiply(a, y, s * cols, cols);
+        }
+    }
+
+    //Y += X * A по ненулевым элементам X для весов одинарной точности
+    public static void multiplySparse(double[] x, float[] a, double[] y, int batch, int rows, int cols) {
+        SparseRow row = SPARSE_ROW.get();
+        for (int s = 0; s < batch; s++) {
+            row.gather(x, s * rows, rows);
+            row.multiply(a, y, s * cols, cols);
+        }
+    }
+
+    //y += x * A по ненулевым байтам x, x[k] = lookup[bytes[xOffset + k] & 0xFF], lookup[0] = 0
+    public static void multiplySparse(byte[] x, int xOffset, double[] lookup, double[] a, double[] y, int rows, int cols) {
+        SparseRow row = SPARSE_ROW.get();
+        row.gather(x, xOffset, rows, lookup);
+        row.multiply(a, y, 0, cols);
+    }
+
+    public static void multiplySparse(byte[] x, int xOffset, double[] lookup, float[] a, double[] y, int rows, int cols) {
+        SparseRow row = SPARSE_ROW.get();
+        row.gather(x, xOffset, rows, lookup);
+        row.multiply(a, y, 0, cols);
+    }
+
+    //G += X^T * D по ненулевым элементам X: в строку k матрицы G складываются строки D только тех примеров,
+    //у которых x[s][k] != 0, строка G при этом остается в кэше
+    public static void addTransposedProductSparse(double[] x, double[] d, double[] g, int batch, int rows, int cols) {
+        SparseRow column = SPARSE_ROW.get();
+        for (int k = 0; k < rows; k++) {
+            column.gather(x, k, batch, rows);
+            column.multiply(d, g, k * cols, cols);
+        }
+    }
+
+    public static void addTransposedProductSparse(double[] x, double[] d, float[] g, int batch, int rows, int cols) {
+        SparseRow column = SPARSE_ROW.get();
+        for (int k = 0; k < rows; k++) {
+            column.gather(x, k, batch, rows);
+            column.multiply(d, g, k * cols, cols);
+        }
+    }
+
+    //Y = D * A^T только для элементов, где mask != 0, остальные элементы Y равны нулю.
+    //Ошибки нейронов ReLU с нулевым выходом обнулит производная, поэтому строки A для них не читаются.
+    //Блоки и порядок сложения те же, что в multiplyTransposed: посчитанные элементы совпадают с ним побитно
+    public static void multiplyTransposedMasked(double[] d, double[] a, double[] mask, double[] y,
+                                                int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        SparseRow active = SPARSE_ROW.get();
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        active.gather(mask, s * rows + kk, kEnd - kk);
+                        active.multiplyTransposed(d, s * cols + jj, a, kk * cols + jj, cols, y, s * rows + kk, width);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void multiplyTransposedMasked(double[] d, float[] a, double[] mask, double[] y,
+                                                int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        SparseRow active = SPARSE_ROW.get();
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        active.gather(mask, s * rows + kk, kEnd - kk);
+                        active.multiplyTransposed(d, s * cols + jj, a, kk * cols + jj, cols, y, s * rows + kk, width);
+                    }
+                }
+            }
+        }
+    }
+
+    //Пакет целиком в одинарной точности: входы, веса, результат и суммы - float. Блоки те же, что у double-ядер,
+    //векторные ядра обрабатывают за шаг вдвое больше элементов
+
+    //Y += X * A
+    public static void multiply(float[] x, float[] a, float[] y, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int yRow = s * cols + jj;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            axpy4(x[xRow + k], x[xRow + k + 1], x[xRow + k + 2], x[xRow + k + 3],
+                                    a, k * cols + jj, cols, y, yRow, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            axpy(x[xRow + k], a, k * cols + jj, y, yRow, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Y = D * A^T
+    public static void multiplyTransposed(float[] d, float[] a, float[] y, int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        int dRow = s * cols + jj;
+                        int yRow = s * rows;
+                        int k = kk;
+                        for (; k + 3 < kEnd; k += 4) {
+                            dot4(d, dRow, a, k * cols + jj, cols, y, yRow + k, width);
+                        }
+                        for (; k < kEnd; k++) {
+                            y[yRow + k] += dot(d, dRow, a, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //G += X^T * D
+    public static void addTransposedProduct(float[] x, float[] d, float[] g, int batch, int rows, int cols) {
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    int s = ss;
+                    for (; s + 3 < sEnd; s += 4) {
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy4(x[s * rows + k], x[(s + 1) * rows + k], x[(s + 2) * rows + k], x[(s + 3) * rows + k],
+                                    d, dRow, cols, g, k * cols + jj, width);
+                        }
+                    }
+                    for (; s < sEnd; s++) {
+                        int xRow = s * rows;
+                        int dRow = s * cols + jj;
+                        for (int k = kk; k < kEnd; k++) {
+                            axpy(x[xRow + k], d, dRow, g, k * cols + jj, width);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Y += X * A по ненулевым элементам X
+    public static void multiplySparse(float[] x, float[] a, float[] y, int batch, int rows, int cols) {
+        SparseRow row = SPARSE_ROW.get();
+        for (int s = 0; s < batch; s++) {
+            row.gather(x, s * rows, rows, 1);
+            row.multiply(a, y, s * cols, cols);
+        }
+    }
+
+    //G += X^T * D по ненулевым элементам X
+    public static void addTransposedProductSparse(float[] x, float[] d, float[] g, int batch, int rows, int cols) {
+        SparseRow column = SPARSE_ROW.get();
+        for (int k = 0; k < rows; k++) {
+            column.gather(x, k, batch, rows);
+            column.multiply(d, g, k * cols, cols);
+        }
+    }
+
+    //Y = D * A^T только для элементов, где mask != 0, остальные элементы Y равны нулю
+    public static void multiplyTransposedMasked(float[] d, float[] a, float[] mask, float[] y,
+                                                int batch, int rows, int cols) {
+        Arrays.fill(y, 0, batch * rows, 0);
+        SparseRow active = SPARSE_ROW.get();
+        for (int ss = 0; ss < batch; ss += BLOCK_BATCH) {
+            int sEnd = Math.min(batch, ss + BLOCK_BATCH);
+            for (int jj = 0; jj < cols; jj += BLOCK_COLS) {
+                int width = Math.min(BLOCK_COLS, cols - jj);
+                for (int kk = 0; kk < rows; kk += BLOCK_ROWS) {
+                    int kEnd = Math.min(rows, kk + BLOCK_ROWS);
+                    for (int s = ss; s < sEnd; s++) {
+                        active.gather(mask, s * rows + kk, kEnd - kk, 1);
+                        active.multiplyTransposed(d, s * cols + jj, a, kk * cols + jj, cols, y, s * rows + kk, width);
+                    }
+                }
+            }
+        }
+    }
+
+    //out += сумма строк D, суммы смещений копятся в double
+    public static void addRowSums(float[] d, double[] out, int batch, int cols) {
+        for (int s = 0; s < batch; s++) {
+            for (int j = 0; j < cols; j++) {
+                out[j] += d[s * cols + j];
+            }
+        }
+    }
+
+    //y += x * A для A в блочном CSR (BSR): A делится на блоки blockRows строк x blockColumns столбцов,
+    //хранятся только ненулевые блоки. Блоки полосы строк g (строки от g * blockRows) - номера p от rowStart[g]
+    //до rowStart[g + 1], блок p - строки по blockColumns весов values[p * blockRows * blockColumns..],
+    //начиная со столбца columns[p]; крайние блоки дополнены нулями. Полосы, где все x нулевые, не читаются,
+    //строки блока идут четверками, поэтому y пишется один раз на четыре строки.
+    //При блоке 1 x 1 это обычный поэлементный CSR
+    public static void multiplyCsr(double[] x, int[] rowStart, int[] columns, double[] values, double[] y,
+                                   int rows, int cols, int blockRows, int blockColumns) {
+        int blockSize = blockRows * blockColumns;
+        for (int g = 0, i = 0; i < rows; g++, i += blockRows) {
+            int height = Math.min(blockRows, rows - i);
+            int end = rowStart[g + 1];
+            if (blockSize == 1) {
+                double value = x[i];
+                if (value != 0) {
+                    for (int p = rowStart[g]; p < end; p++) {
+                        y[columns[p]] += value * values[p];
+                    }
+                }
+                continue;
+            }
+            if (isZero(x, i, height)) {
+                continue;
+            }
+            if (VECTORIZED && blockColumns % VectorKernels.lanes() == 0) {
+                int k = 0;
+                for (; k + 4 <= height; k += 4) {
+                    VectorKernels.axpy4Blocks(x[i + k], x[i + k + 1], x[i + k + 2], x[i + k + 3], values,
+                            k * blockColumns, blockSize, blockColumns, columns, rowStart[g], end, y, cols);
+                }
+                for (; k < height; k++) {
+                    if (x[i + k] != 0) {
+                        VectorKernels.axpyBlocks(x[i + k], values, k * blockColumns, blockSize, blockColumns,
+                                columns, rowStart[g], end, y, cols);
+                    }
+                }
+                continue;
+            }
+            for (int p = rowStart[g]; p < end; p++) {
+                int column = columns[p];
+                int length = Math.min(blockColumns, cols - column);
+                int offset = p * blockSize;
+                int k = 0;
+                for (; k + 4 <= height; k += 4) {
+                    axpy4(x[i + k], x[i + k + 1], x[i + k + 2], x[i + k + 3], values, offset + k * blockColumns,
+                            blockColumns, y, column, length);
+                }
+                for (; k < height; k++) {
+                    if (x[i + k] != 0) {
+                        axpy(x[i + k], values, offset + k * blockColumns, y, column, length);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isZero(double[] x, int offset, int length) {
+        for (int k = 0; k < length; k++) {
+            if (x[offset + k] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //индексы и значения ненулевых элементов одной строки (или столбца) матрицы
+    private static final class SparseRow {
+        private int[] index = new int[0];
+        private double[] values = new double[0];
+        private int count;
+        //суммы dot4 перед раскладкой по разреженным элементам результата
+        private final double[] sums = new double[4];
+        private final float[] floatSums = new float[4];
+
+        private void ensureCapacity(int length) {
+            if (index.length < length) {
+                index = new int[length];
+                values = new double[length];
+            }
+        }
+
+        //элементы x[offset + k * stride], k = 0..length-1
+        private void gather(double[] x, int offset, int length, int stride) {
+            ensureCapacity(length);
+            int n = 0;
+            for (int k = 0; k < length; k++) {
+                double value = x[offset + k * stride];
+                if (value != 0) {
+                    index[n] = k;
+                    values[n++] = value;
+                }
+            }
+            count = n;
+        }
+
+        private void gather(double[] x, int offset, int length) {
+            gather(x, offset, length, 1);
+        }
+
+        //элементы float-массива, значения хранятся в double без потери точности
+        private void gather(float[] x, int offset, int length, int stride) {
+            ensureCapacity(length);
+            int n = 0;
+            for (int k = 0; k < length; k++) {
+                float value = x[offset + k * stride];
+                if (value != 0) {
+                    index[n] = k;
+                    values[n++] = value;
+                }
+            }
+            count = n;
+        }
+
+        private void gather(byte[] x, int offset, int length, double[] lookup) {
+            ensureCapacity(length);
+            int n = 0;
+            for (int k = 0; k < length; k++) {
+                int b = x[offset + k] & 0xFF;
+                if (b != 0) {
+                    index[n] = k;
+                    values[n++] = lookup[b];
+                }
+            }
+            count = n;
+        }
+
+        //y[yOffset..] += сумма values[n] * (строка index[n] матрицы A), по четыре строки за проход
+        private void multiply(double[] a, double[] y, int yOffset, int cols) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                axpy4(values[n], values[n + 1], values[n + 2], values[n + 3], a,
+                        index[n] * cols, index[n + 1] * cols, index[n + 2] * cols, index[n + 3] * cols, y, yOffset, cols);
+            }
+            for (; n < count; n++) {
+                axpy(values[n], a, index[n] * cols, y, yOffset, cols);
+            }
+        }
+
+        private void multiply(float[] a, double[] y, int yOffset, int cols) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                axpy4(values[n], values[n + 1], values[n + 2], values[n + 3], a,
+                        index[n] * cols, index[n + 1] * cols, index[n + 2] * cols, index[n + 3] * cols, y, yOffset, cols);
+            }
+            for (; n < count; n++) {
+                axpy(values[n], a, index[n] * cols, y, yOffset, cols);
+            }
+        }
+
+        //то же для float-массива y
+        private void multiply(double[] a, float[] y, int yOffset, int cols) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                axpy4(values[n], values[n + 1], values[n + 2], values[n + 3], a,
+                        index[n] * cols, index[n + 1] * cols, index[n + 2] * cols, index[n + 3] * cols, y, yOffset, cols);
+            }
+            for (; n < count; n++) {
+                axpy(values[n], a, index[n] * cols, y, yOffset, cols);
+            }
+        }
+
+        //то же для пакета во float
+        private void multiply(float[] a, float[] y, int yOffset, int cols) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                axpy4((float) values[n], (float) values[n + 1], (float) values[n + 2], (float) values[n + 3], a,
+                        index[n] * cols, index[n + 1] * cols, index[n + 2] * cols, index[n + 3] * cols, y, yOffset, cols);
+            }
+            for (; n < count; n++) {
+                axpy((float) values[n], a, index[n] * cols, y, yOffset, cols);
+            }
+        }
+
+        //y[yOffset + index[n]] += d[dOffset..] * (строка index[n] матрицы A с aOffset, шаг строк stride), length элементов
+        private void multiplyTransposed(double[] d, int dOffset, double[] a, int aOffset, int stride,
+                                        double[] y, int yOffset, int length) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                Arrays.fill(sums, 0);
+                dot4(d, dOffset, a, aOffset + index[n] * stride, aOffset + index[n + 1] * stride,
+                        aOffset + index[n + 2] * stride, aOffset + index[n + 3] * stride, sums, 0, length);
+                for (int r = 0; r < 4; r++) {
+                    y[yOffset + index[n + r]] += sums[r];
+                }
+            }
+            for (; n < count; n++) {
+                y[yOffset + index[n]] += dot(d, dOffset, a, aOffset + index[n] * stride, length);
+            }
+        }
+
+        private void multiplyTransposed(double[] d, int dOffset, float[] a, int aOffset, int stride,
+                                        double[] y, int yOffset, int length) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                Arrays.fill(sums, 0);
+                dot4(d, dOffset, a, aOffset + index[n] * stride, aOffset + index[n + 1] * stride,
+                        aOffset + index[n + 2] * stride, aOffset + index[n + 3] * stride, sums, 0, length);
+                for (int r = 0; r < 4; r++) {
+                    y[yOffset + index[n + r]] += sums[r];
+                }
+            }
+            for (; n < count; n++) {
+                y[yOffset + index[n]] += dot(d, dOffset, a, aOffset + index[n] * stride, length);
+            }
+        }
+
+        private void multiplyTransposed(float[] d, int dOffset, float[] a, int aOffset, int stride,
+                                        float[] y, int yOffset, int length) {
+            int n = 0;
+            for (; n + 3 < count; n += 4) {
+                Arrays.fill(floatSums, 0);
+                dot4(d, dOffset, a, aOffset + index[n] * stride, aOffset + index[n + 1] * stride,
+                        aOffset + index[n + 2] * stride, aOffset + index[n + 3] * stride, floatSums, 0, length);
+                for (int r = 0; r < 4; r++) {
+                    y[yOffset + index[n + r]] += floatSums[r];
+                }
+            }
+            for (; n < count; n++) {
+                y[yOffset + index[n]] += dot(d, dOffset, a, aOffset + index[n] * stride, length);
+            }
+        }
+    }
+
+    //out += сумма строк D, D - batch x cols
+    public static void addRowSums(double[] d, double[] out, int batch, int cols) {
+        for (int s = 0; s < batch; s++) {
+            axpy(1.0, d, s * cols, out, 0, cols);
+        }
+    }
+
+    //y[yOffset..] += alpha * x[xOffset..], length элементов
+    public static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy(alpha, x, xOffset, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    //y[yOffset..] += x0 * a[aOffset..] + x1 * a[aOffset + stride..] + ... - четыре строки за один проход по y
+    private static void axpy4(double x0, double x1, double x2, double x3, double[] a, int aOffset, int stride,
+                              double[] y, int yOffset, int length) {
+        axpy4(x0, x1, x2, x3, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, y, yOffset, length);
+    }
+
+    //то же для четырех произвольных строк a, начинающихся с a0..a3
+    private static void axpy4(double x0, double x1, double x2, double x3, double[] a, int a0, int a1, int a2, int a3,
+                              double[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy4(x0, x1, x2, x3, a, a0, a1, a2, a3, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    //out[outOffset + r] += x * a[aOffset + r * stride..] для четырех строк a, x читается один раз
+    private static void dot4(double[] x, int xOffset, double[] a, int aOffset, int stride,
+                             double[] out, int outOffset, int length) {
+        dot4(x, xOffset, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, out, outOffset, length);
+    }
+
+    //то же для четырех произвольных строк a, начинающихся с a0..a3
+    private static void dot4(double[] x, int xOffset, double[] a, int a0, int a1, int a2, int a3,
+                             double[] out, int outOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.dot4(x, xOffset, a, a0, a1, a2, a3, out, outOffset, length);
+            return;
+        }
+        double sum0 = 0;
+        double sum1 = 0;
+        double sum2 = 0;
+        double sum3 = 0;
+        for (int j = 0; j < length; j++) {
+            double v = x[xOffset + j];
+            sum0 += v * a[a0 + j];
+            sum1 += v * a[a1 + j];
+            sum2 += v * a[a2 + j];
+            sum3 += v * a[a3 + j];
+        }
+        out[outOffset] += sum0;
+        out[outOffset + 1] += sum1;
+        out[outOffset + 2] += sum2;
+        out[outOffset + 3] += sum3;
+    }
+
+    public static double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            return VectorKernels.dot(x, xOffset, y, yOffset, length);
+        }
+        double sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += x[xOffset + j] * y[yOffset + j];
+        }
+        return sum;
+    }
+
+    public static void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy(alpha, x, xOffset, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    //y[yOffset..] += alpha * x[xOffset..] для float-массива y
+    public static void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy(alpha, x, xOffset, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += (float) (alpha * x[xOffset + j]);
+        }
+    }
+
+    //y (float) += x0 * a[aOffset..] + ... : сумма четырех строк считается в double и округляется один раз
+    private static void axpy4(double x0, double x1, double x2, double x3, double[] a, int aOffset, int stride,
+                              float[] y, int yOffset, int length) {
+        axpy4(x0, x1, x2, x3, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, y, yOffset, length);
+    }
+
+    private static void axpy4(double x0, double x1, double x2, double x3, double[] a, int a0, int a1, int a2, int a3,
+                              float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy4(x0, x1, x2, x3, a, a0, a1, a2, a3, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += (float) (x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j]);
+        }
+    }
+
+    private static void axpy4(double x0, double x1, double x2, double x3, float[] a, int aOffset, int stride,
+                              double[] y, int yOffset, int length) {
+        axpy4(x0, x1, x2, x3, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, y, yOffset, length);
+    }
+
+    private static void axpy4(double x0, double x1, double x2, double x3, float[] a, int a0, int a1, int a2, int a3,
+                              double[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy4(x0, x1, x2, x3, a, a0, a1, a2, a3, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    private static void dot4(double[] x, int xOffset, float[] a, int aOffset, int stride,
+                             double[] out, int outOffset, int length) {
+        dot4(x, xOffset, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, out, outOffset, length);
+    }
+
+    private static void dot4(double[] x, int xOffset, float[] a, int a0, int a1, int a2, int a3,
+                             double[] out, int outOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.dot4(x, xOffset, a, a0, a1, a2, a3, out, outOffset, length);
+            return;
+        }
+        double sum0 = 0;
+        double sum1 = 0;
+        double sum2 = 0;
+        double sum3 = 0;
+        for (int j = 0; j < length; j++) {
+            double v = x[xOffset + j];
+            sum0 += v * a[a0 + j];
+            sum1 += v * a[a1 + j];
+            sum2 += v * a[a2 + j];
+            sum3 += v * a[a3 + j];
+        }
+        out[outOffset] += sum0;
+        out[outOffset + 1] += sum1;
+        out[outOffset + 2] += sum2;
+        out[outOffset + 3] += sum3;
+    }
+
+    public static double dot(double[] x, int xOffset, float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            return VectorKernels.dot(x, xOffset, y, yOffset, length);
+        }
+        double sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += x[xOffset + j] * y[yOffset + j];
+        }
+        return sum;
+    }
+
+    //y[yOffset..] += alpha * x[xOffset..] для пакета во float
+    public static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy(alpha, x, xOffset, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    private static void axpy4(float x0, float x1, float x2, float x3, float[] a, int aOffset, int stride,
+                              float[] y, int yOffset, int length) {
+        axpy4(x0, x1, x2, x3, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, y, yOffset, length);
+    }
+
+    private static void axpy4(float x0, float x1, float x2, float x3, float[] a, int a0, int a1, int a2, int a3,
+                              float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy4(x0, x1, x2, x3, a, a0, a1, a2, a3, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    private static void dot4(float[] x, int xOffset, float[] a, int aOffset, int stride,
+                             float[] out, int outOffset, int length) {
+        dot4(x, xOffset, a, aOffset, aOffset + stride, aOffset + 2 * stride, aOffset + 3 * stride, out, outOffset, length);
+    }
+
+    private static void dot4(float[] x, int xOffset, float[] a, int a0, int a1, int a2, int a3,
+                             float[] out, int outOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.dot4(x, xOffset, a, a0, a1, a2, a3, out, outOffset, length);
+            return;
+        }
+        float sum0 = 0;
+        float sum1 = 0;
+        float sum2 = 0;
+        float sum3 = 0;
+        for (int j = 0; j < length; j++) {
+            float v = x[xOffset + j];
+            sum0 += v * a[a0 + j];
+            sum1 += v * a[a1 + j];
+            sum2 += v * a[a2 + j];
+            sum3 += v * a[a3 + j];
+        }
+        out[outOffset] += sum0;
+        out[outOffset + 1] += sum1;
+        out[outOffset + 2] += sum2;
+        out[outOffset + 3] += sum3;
+    }
+
+    public static float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            return VectorKernels.dot(x, xOffset, y, yOffset, length);
+        }
+        float sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += x[xOffset + j] * y[yOffset + j];
+        }
+        return sum;
+    }
+
+    //x * a[aOffset..] для int8-векторов с суммой в int32, ядро квантованного вывода.
+    //произведение по модулю не больше 128 * 128, поэтому сумма до 2^17 элементов не переполняется
+    public static int dot(byte[] x, int xOffset, byte[] a, int aOffset, int length) {
+        if (VECTORIZED) {
+            return VectorKernels.dot(x, xOffset, a, aOffset, length);
+        }
+        int sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += x[xOffset + j] * a[aOffset + j];
+        }
+        return sum;
+    }
+
+    //y[yOffset..] += alpha * a[aOffset..] для int8-строки a с суммой в int32, alpha в [-128, 127]
+    public static void axpy(int alpha, byte[] a, int aOffset, int[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy(alpha, a, aOffset, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += alpha * a[aOffset + j];
+        }
+    }
+
+    //y[yOffset..] += alpha0 * a[a0..] + alpha1 * a[a1..] - две int8-строки за проход по y.
+    //alpha и элементы a по модулю не больше 127: сумма двух произведений помещается в short
+    public static void axpy2(int alpha0, int alpha1, byte[] a, int a0, int a1, int[] y, int yOffset, int length) {
+        if (VECTORIZED) {
+            VectorKernels.axpy2(alpha0, alpha1, a, a0, a1, y, yOffset, length);
+            return;
+        }
+        for (int j = 0; j < length; j++) {
+            y[yOffset + j] += alpha0 * a[a0 + j] + alpha1 * a[a1 + j];
+        }
+    }
+
+    //поэлементные функции активаций на отрезке [from..to), out может совпадать с x (и с y)
+
+    //out = 1 / (1 + e^-x)
+    public static void sigmoid(double[] x, double[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.sigmoid(x, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = 1.0 / (1.0 + Math.exp(-x[i]));
+        }
+    }
+
+    //out = x * (1 - x) * y, x - значения сигмоиды
+    public static void sigmoidDerivative(double[] x, double[] y, double[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.sigmoidDerivative(x, y, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] * (1.0 - x[i]) * y[i];
+        }
+    }
+
+    //out = max(x, 0)
+    public static void relu(double[] x, double[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.relu(x, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : x[i];
+        }
+    }
+
+    //out = x > 0 ? y : 0
+    public static void reluDerivative(double[] x, double[] y, double[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.reluDerivative(x, y, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : y[i];
+        }
+    }
+
+    //out = e^(x - shift), возвращает сумму out
+    public static double expShifted(double[] x, double shift, double[] out, int from, int to) {
+        if (VECTORIZED) {
+            return VectorKernels.expShifted(x, shift, out, from, to);
+        }
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            out[i] = Math.exp(x[i] - shift);
+            sum += out[i];
+        }
+        return sum;
+    }
+
+    //то же для пакета во float
+
+    public static void sigmoid(float[] x, float[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.sigmoid(x, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = (float) (1.0 / (1.0 + Math.exp(-x[i])));
+        }
+    }
+
+    public static void sigmoidDerivative(float[] x, float[] y, float[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.sigmoidDerivative(x, y, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] * (1f - x[i]) * y[i];
+        }
+    }
+
+    public static void relu(float[] x, float[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.relu(x, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : x[i];
+        }
+    }
+
+    public static void reluDerivative(float[] x, float[] y, float[] out, int from, int to) {
+        if (VECTORIZED) {
+            VectorKernels.reluDerivative(x, y, out, from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : y[i];
+        }
+    }
+
+    public static float expShifted(float[] x, float shift, float[] out, int from, int to) {
+        if (VECTORIZED) {
+            return VectorKernels.expShifted(x, shift, out, from, to);
+        }
+        float sum = 0;
+        for (int i = from; i < to; i++) {
+            out[i] = (float) Math.exp(x[i] - shift);
+            sum += out[i];
+        }
+        return sum;
+    }
+
+    //номер наибольшего элемента, при равенстве - первый: класс, предсказанный по выходу сети
+    public static int argMax(double[] values) {
+        int max = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+}
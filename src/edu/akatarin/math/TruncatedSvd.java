@@ -0,0 +1,202 @@
+package edu.akatarin.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+//Усеченное сингулярное разложение матрицы A (rows x cols, построчно): A ≈ L * R, L - rows x r с ортонормированными
+//столбцами (левые сингулярные векторы), R - r x cols (правые сингулярные векторы, умноженные на сингулярные числа).
+//Считается рандомизированно: k = rank + OVERSAMPLING случайных векторов проходят через A и A^T с ортогонализацией
+//(степенные итерации), A проецируется на полученный базис Q (B = Q^T * A, k x cols), а точное разложение
+//малой B находится через собственные векторы B * B^T методом Якоби. Разложение ранга rank содержит
+//разложения всех меньших рангов: getLeft(r) и getRight(r) берут первые r векторов
+public final class TruncatedSvd {
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 2;
+    private static final int MAX_SWEEPS = 60;
+    //зерно постоянное, чтобы разложение одной и той же матрицы не менялось от запуска к запуску
+    private static final long SEED = 1;
+
+    private final int rows;
+    private final int cols;
+    private final int rank;
+    //левые векторы по строкам: rank x rows, то есть L^T
+    private final double[] leftTransposed;
+    //rank x cols
+    private final double[] right;
+    private final double[] singularValues;
+
+    private TruncatedSvd(int rows, int cols, int rank, double[] leftTransposed, double[] right, double[] singularValues) {
+        this.rows = rows;
+        this.cols = cols;
+        this.rank = rank;
+        this.leftTransposed = leftTransposed;
+        this.right = right;
+        this.singularValues = singularValues;
+    }
+
+    public static TruncatedSvd of(double[] a, int rows, int cols, int rank) {
+        if (rank < 1 || rank > Math.min(rows, cols)) {
+            throw new IllegalArgumentException("Rank must be in [1, " + Math.min(rows, cols) + "]: " + rank);
+        }
+        int k = Math.min(rank + OVERSAMPLING, Math.min(rows, cols));
+        //векторы базиса хранятся строками: q - k x rows, r - k x cols
+        Random random = new Random(SEED);
+        double[] r = new double[k * cols];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = random.nextGaussian();
+        }
+        double[] q = new double[k * rows];
+        LinearAlgebra.multiplyTransposed(r, a, q, k, rows, cols);
+        orthonormalizeRows(q, k, rows);
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            Arrays.fill(r, 0);
+            LinearAlgebra.multiply(q, a, r, k, rows, cols);
+            orthonormalizeRows(r, k, cols);
+            LinearAlgebra.multiplyTransposed(r, a, q, k, rows, cols);
+            orthonormalizeRows(q, k, rows);
+        }
+        //B = Q^T * A, строки B - проекции строк A^T на базис
+        double[] b = new double[k * cols];
+        LinearAlgebra.multiply(q, a, b, k, rows, cols);
+        double[] gram = new double[k * k];
+        LinearAlgebra.multiplyTransposed(b, b, gram, k, k, cols);
+        double[] vectors = new double[k * k];
+        jacobi(gram, vectors, k);
+        //собственные векторы по убыванию собственных чисел, строками: w - rank x k
+        Integer[] order = new Integer[k];
+        for (int i = 0; i < k; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(gram[y * k + y], gram[x * k + x]));
+        double[] w = new double[rank * k];
+        double[] singularValues = new double[rank];
+        for (int m = 0; m < rank; m++) {
+            int column = order[m];
+            for (int l = 0; l < k; l++) {
+                w[m * k + l] = vectors[l * k + column];
+            }
+            singularValues[m] = Math.sqrt(Math.max(0, gram[column * k + column]));
+        }
+        //L^T = W^T * Q^T, R = W^T * B: A ≈ Q * B = Q * W * W^T * B
+        double[] leftTransposed = new double[rank * rows];
+        LinearAlgebra.multiply(w, q, leftTransposed, rank, k, rows);
+        double[] right = new double[rank * cols];
+        LinearAlgebra.multiply(w, b, right, rank, k, cols);
+        return new TruncatedSvd(rows, cols, rank, leftTransposed, right, singularValues);
+    }
+
+    //модифицированный Грам-Шмидт по строкам m x n, два прохода для устойчивости.
+    //строки, линейно зависимые от предыдущих, обнуляются
+    private static void orthonormalizeRows(double[] v, int m, int n) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < m; i++) {
+                double before = Math.sqrt(LinearAlgebra.dot(v, i * n, v, i * n, n));
+                for (int j = 0; j < i; j++) {
+                    double projection = LinearAlgebra.dot(v, i * n, v, j * n, n);
+                    LinearAlgebra.axpy(-projection, v, j * n, v, i * n, n);
+                }
+                double norm = Math.sqrt(LinearAlgebra.dot(v, i * n, v, i * n, n));
+                if (norm <= 1e-10 * before || norm == 0) {
+                    Arrays.fill(v, i * n, (i + 1) * n, 0);
+                } else {
+                    for (int l = 0; l < n; l++) {
+                        v[i * n + l] /= norm;
+                    }
+                }
+            }
+        }
+    }
+
+    //циклический метод Якоби для симметричной g (n x n): g приводится к диагонали собственных чисел,
+    //в столбцы vectors записываются собственные векторы
+    private static void jacobi(double[] g, double[] vectors, int n) {
+        Arrays.fill(vectors, 0);
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            vectors[i * n + i] = 1;
+            for (int j = 0; j < n; j++) {
+                total += g[i * n + j] * g[i * n + j];
+            }
+        }
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double off = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    off += g[p * n + q] * g[p * n + q];
+                }
+            }
+            if (off <= 1e-28 * total) {
+                return;
+            }
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double apq = g[p * n + q];
+                    if (apq == 0) {
+                        continue;
+                    }
+                    double theta = (g[q * n + q] - g[p * n + p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    rotate(g, n, 1, p * n, q * n, c, s);
+                    rotate(g, n, n, p, q, c, s);
+                    rotate(vectors, n, n, p, q, c, s);
+                }
+            }
+        }
+    }
+
+    //поворот пары строк (step = 1) или столбцов (step = n): u' = c * u - s * v, v' = s * u + c * v
+    private static void rotate(double[] m, int n, int step, int u, int v, double c, double s) {
+        for (int k = 0; k < n; k++) {
+            double x = m[u + k * step];
+            double y = m[v + k * step];
+            m[u + k * step] = c * x - s * y;
+            m[v + k * step] = s * x + c * y;
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    //сингулярные числа по убыванию
+    public double[] getSingularValues() {
+        return singularValues.clone();
+    }
+
+    //первые r левых векторов столбцами: rows x r построчно
+    public double[] getLeft(int r) {
+        checkRank(r);
+        double[] left = new double[rows * r];
+        for (int m = 0; m < r; m++) {
+            for (int i = 0; i < rows; i++) {
+                left[i * r + m] = leftTransposed[m * rows + i];
+            }
+        }
+        return left;
+    }
+
+    //первые r строк правого множителя: r x cols построчно
+    public double[] getRight(int r) {
+        checkRank(r);
+        return Arrays.copyOf(right, r * cols);
+    }
+
+    private void checkRank(int r) {
+        if (r < 1 || r > rank) {
+            throw new IllegalArgumentException("Rank must be in [1, " + rank + "]: " + r);
+        }
+    }
+}
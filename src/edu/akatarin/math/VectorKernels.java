@@ -0,0 +1,615 @@
+package edu.akatarin.math;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//Векторные (SIMD) варианты ядер LinearAlgebra на jdk.incubator.vector.
+//Класс загружается только из LinearAlgebra и только если модуль доступен, см. LinearAlgebra.VECTORIZED.
+//Хвост короче длины вектора досчитывается скалярно, чтобы не тратить время на маски в горячих циклах.
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    //int8-ядра: байты расширяются до short (произведение двух int8 помещается в short), суммы копятся в int.
+    //short и int - векторы той же ширины, что и double, байтов за шаг столько же, сколько short
+    private static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, SPECIES.vectorShape());
+    private static final VectorSpecies<Short> SHORT_SPECIES = VectorSpecies.of(short.class, SPECIES.vectorShape());
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    //веса одинарной точности при double-значениях: float-вектор вдвое уже double-вектора и содержит столько же
+    //элементов, читается за шаг вдвое меньше байт, после расширения F2D считается в double
+    private static final VectorSpecies<Float> NARROW_FLOAT_SPECIES =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    //пакет целиком во float: вектор полной ширины, элементов за шаг вдвое больше, чем double
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+
+    private VectorKernels() {
+    }
+
+    static int lanes() {
+        return LANES;
+    }
+
+    static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + j);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + j);
+            vx.fma(va, vy).intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    //блоки CSR from..to одной полосы строк: y[columns[p]..] += alpha * (строка блока p, начинающаяся
+    //с values[p * blockSize + rowOffset]), blockColumns кратен LANES. Короткий блок в конце y считается скалярно
+    static void axpyBlocks(double alpha, double[] values, int rowOffset, int blockSize, int blockColumns,
+                           int[] columns, int from, int to, double[] y, int length) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        for (int p = from; p < to; p++) {
+            int column = columns[p];
+            int a = p * blockSize + rowOffset;
+            if (column + blockColumns > length) {
+                for (int j = column; j < length; j++) {
+                    y[j] += alpha * values[a + j - column];
+                }
+                continue;
+            }
+            for (int j = 0; j < blockColumns; j += LANES) {
+                DoubleVector vy = DoubleVector.fromArray(SPECIES, y, column + j);
+                DoubleVector.fromArray(SPECIES, values, a + j).fma(va, vy).intoArray(y, column + j);
+            }
+        }
+    }
+
+    //то же для четырех соседних строк блоков: y пишется один раз на четыре строки
+    static void axpy4Blocks(double x0, double x1, double x2, double x3, double[] values, int rowOffset, int blockSize,
+                            int blockColumns, int[] columns, int from, int to, double[] y, int length) {
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0);
+        DoubleVector v1 = DoubleVector.broadcast(SPECIES, x1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2);
+        DoubleVector v3 = DoubleVector.broadcast(SPECIES, x3);
+        for (int p = from; p < to; p++) {
+            int column = columns[p];
+            int a0 = p * blockSize + rowOffset;
+            int a1 = a0 + blockColumns;
+            int a2 = a1 + blockColumns;
+            int a3 = a2 + blockColumns;
+            if (column + blockColumns > length) {
+                for (int j = 0; j < length - column; j++) {
+                    y[column + j] += x0 * values[a0 + j] + x1 * values[a1 + j] + x2 * values[a2 + j] + x3 * values[a3 + j];
+                }
+                continue;
+            }
+            for (int j = 0; j < blockColumns; j += LANES) {
+                DoubleVector vy = DoubleVector.fromArray(SPECIES, y, column + j);
+                vy = DoubleVector.fromArray(SPECIES, values, a0 + j).fma(v0, vy);
+                vy = DoubleVector.fromArray(SPECIES, values, a1 + j).fma(v1, vy);
+                vy = DoubleVector.fromArray(SPECIES, values, a2 + j).fma(v2, vy);
+                vy = DoubleVector.fromArray(SPECIES, values, a3 + j).fma(v3, vy);
+                vy.intoArray(y, column + j);
+            }
+        }
+    }
+
+    static void axpy4(double x0, double x1, double x2, double x3, double[] a, int a0, int a1, int a2, int a3,
+                      double[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0);
+        DoubleVector v1 = DoubleVector.broadcast(SPECIES, x1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2);
+        DoubleVector v3 = DoubleVector.broadcast(SPECIES, x3);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + j);
+            vy = DoubleVector.fromArray(SPECIES, a, a0 + j).fma(v0, vy);
+            vy = DoubleVector.fromArray(SPECIES, a, a1 + j).fma(v1, vy);
+            vy = DoubleVector.fromArray(SPECIES, a, a2 + j).fma(v2, vy);
+            vy = DoubleVector.fromArray(SPECIES, a, a3 + j).fma(v3, vy);
+            vy.intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    static void dot4(double[] x, int xOffset, double[] a, int a0, int a1, int a2, int a3,
+                     double[] out, int outOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        DoubleVector sum3 = DoubleVector.zero(SPECIES);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOffset + j);
+            sum0 = v.fma(DoubleVector.fromArray(SPECIES, a, a0 + j), sum0);
+            sum1 = v.fma(DoubleVector.fromArray(SPECIES, a, a1 + j), sum1);
+            sum2 = v.fma(DoubleVector.fromArray(SPECIES, a, a2 + j), sum2);
+            sum3 = v.fma(DoubleVector.fromArray(SPECIES, a, a3 + j), sum3);
+        }
+        double s0 = sum0.reduceLanes(VectorOperators.ADD);
+        double s1 = sum1.reduceLanes(VectorOperators.ADD);
+        double s2 = sum2.reduceLanes(VectorOperators.ADD);
+        double s3 = sum3.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            double v = x[xOffset + j];
+            s0 += v * a[a0 + j];
+            s1 += v * a[a1 + j];
+            s2 += v * a[a2 + j];
+            s3 += v * a[a3 + j];
+        }
+        out[outOffset] += s0;
+        out[outOffset + 1] += s1;
+        out[outOffset + 2] += s2;
+        out[outOffset + 3] += s3;
+    }
+
+    static double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + j);
+            sum = vx.fma(DoubleVector.fromArray(SPECIES, y, yOffset + j), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            result += x[xOffset + j] * y[yOffset + j];
+        }
+        return result;
+    }
+
+    private static DoubleVector widen(float[] a, int offset) {
+        return (DoubleVector) FloatVector.fromArray(NARROW_FLOAT_SPECIES, a, offset)
+                .convertShape(VectorOperators.F2D, SPECIES, 0);
+    }
+
+    static void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + j);
+            widen(x, xOffset + j).fma(va, vy).intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    //y (float) += alpha * x: произведение считается в double и округляется до float, сложение в float,
+    //как в скалярном цикле, поэтому результаты совпадают побитно
+    static void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            FloatVector product = (FloatVector) DoubleVector.fromArray(SPECIES, x, xOffset + j).mul(va)
+                    .convertShape(VectorOperators.D2F, NARROW_FLOAT_SPECIES, 0);
+            FloatVector.fromArray(NARROW_FLOAT_SPECIES, y, yOffset + j).add(product).intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += (float) (alpha * x[xOffset + j]);
+        }
+    }
+
+    static void axpy4(double x0, double x1, double x2, double x3, float[] a, int a0, int a1, int a2, int a3,
+                      double[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0);
+        DoubleVector v1 = DoubleVector.broadcast(SPECIES, x1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2);
+        DoubleVector v3 = DoubleVector.broadcast(SPECIES, x3);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + j);
+            vy = widen(a, a0 + j).fma(v0, vy);
+            vy = widen(a, a1 + j).fma(v1, vy);
+            vy = widen(a, a2 + j).fma(v2, vy);
+            vy = widen(a, a3 + j).fma(v3, vy);
+            vy.intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    static void axpy4(double x0, double x1, double x2, double x3, double[] a, int a0, int a1, int a2, int a3,
+                      float[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0);
+        DoubleVector v1 = DoubleVector.broadcast(SPECIES, x1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2);
+        DoubleVector v3 = DoubleVector.broadcast(SPECIES, x3);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector sum = DoubleVector.fromArray(SPECIES, a, a0 + j).mul(v0);
+            sum = DoubleVector.fromArray(SPECIES, a, a1 + j).fma(v1, sum);
+            sum = DoubleVector.fromArray(SPECIES, a, a2 + j).fma(v2, sum);
+            sum = DoubleVector.fromArray(SPECIES, a, a3 + j).fma(v3, sum);
+            FloatVector.fromArray(NARROW_FLOAT_SPECIES, y, yOffset + j)
+                    .add(sum.convertShape(VectorOperators.D2F, NARROW_FLOAT_SPECIES, 0))
+                    .intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += (float) (x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j]);
+        }
+    }
+
+    static void dot4(double[] x, int xOffset, float[] a, int a0, int a1, int a2, int a3,
+                     double[] out, int outOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        DoubleVector sum3 = DoubleVector.zero(SPECIES);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOffset + j);
+            sum0 = v.fma(widen(a, a0 + j), sum0);
+            sum1 = v.fma(widen(a, a1 + j), sum1);
+            sum2 = v.fma(widen(a, a2 + j), sum2);
+            sum3 = v.fma(widen(a, a3 + j), sum3);
+        }
+        double s0 = sum0.reduceLanes(VectorOperators.ADD);
+        double s1 = sum1.reduceLanes(VectorOperators.ADD);
+        double s2 = sum2.reduceLanes(VectorOperators.ADD);
+        double s3 = sum3.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            double v = x[xOffset + j];
+            s0 += v * a[a0 + j];
+            s1 += v * a[a1 + j];
+            s2 += v * a[a2 + j];
+            s3 += v * a[a3 + j];
+        }
+        out[outOffset] += s0;
+        out[outOffset + 1] += s1;
+        out[outOffset + 2] += s2;
+        out[outOffset + 3] += s3;
+    }
+
+    static double dot(double[] x, int xOffset, float[] y, int yOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + j);
+            sum = vx.fma(widen(y, yOffset + j), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            result += x[xOffset + j] * y[yOffset + j];
+        }
+        return result;
+    }
+
+    //y[0..length) += alpha * (double с байта offset буфера a)
+    static void axpyDoubles(double alpha, ByteBuffer a, int offset, double[] y, int length) {
+        ByteOrder order = a.order();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, j);
+            DoubleVector.fromByteBuffer(SPECIES, a, offset + j * Double.BYTES, order).fma(va, vy).intoArray(y, j);
+        }
+        for (; j < length; j++) {
+            y[j] += alpha * a.getDouble(offset + j * Double.BYTES);
+        }
+    }
+
+    //то же для float в буфере
+    static void axpyFloats(double alpha, ByteBuffer a, int offset, double[] y, int length) {
+        ByteOrder order = a.order();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, j);
+            ((DoubleVector) FloatVector.fromByteBuffer(NARROW_FLOAT_SPECIES, a, offset + j * Float.BYTES, order)
+                    .convertShape(VectorOperators.F2D, SPECIES, 0)).fma(va, vy).intoArray(y, j);
+        }
+        for (; j < length; j++) {
+            y[j] += alpha * a.getFloat(offset + j * Float.BYTES);
+        }
+    }
+
+    static int dot(byte[] x, int xOffset, byte[] a, int aOffset, int length) {
+        int step = BYTE_SPECIES.length();
+        int bound = BYTE_SPECIES.loopBound(length);
+        IntVector sum = IntVector.zero(INT_SPECIES);
+        int j = 0;
+        for (; j < bound; j += step) {
+            ShortVector vx = (ShortVector) ByteVector.fromArray(BYTE_SPECIES, x, xOffset + j)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0);
+            ShortVector va = (ShortVector) ByteVector.fromArray(BYTE_SPECIES, a, aOffset + j)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0);
+            ShortVector product = vx.mul(va);
+            sum = sum.add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 0))
+                    .add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 1));
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            result += x[xOffset + j] * a[aOffset + j];
+        }
+        return result;
+    }
+
+    static void axpy(int alpha, byte[] a, int aOffset, int[] y, int yOffset, int length) {
+        int step = BYTE_SPECIES.length();
+        int intLanes = INT_SPECIES.length();
+        int bound = BYTE_SPECIES.loopBound(length);
+        ShortVector va = ShortVector.broadcast(SHORT_SPECIES, (short) alpha);
+        int j = 0;
+        for (; j < bound; j += step) {
+            ShortVector product = ((ShortVector) ByteVector.fromArray(BYTE_SPECIES, a, aOffset + j)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0)).mul(va);
+            IntVector.fromArray(INT_SPECIES, y, yOffset + j)
+                    .add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 0))
+                    .intoArray(y, yOffset + j);
+            IntVector.fromArray(INT_SPECIES, y, yOffset + j + intLanes)
+                    .add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 1))
+                    .intoArray(y, yOffset + j + intLanes);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += alpha * a[aOffset + j];
+        }
+    }
+
+    static void axpy2(int alpha0, int alpha1, byte[] a, int a0, int a1, int[] y, int yOffset, int length) {
+        int step = BYTE_SPECIES.length();
+        int intLanes = INT_SPECIES.length();
+        int bound = BYTE_SPECIES.loopBound(length);
+        ShortVector v0 = ShortVector.broadcast(SHORT_SPECIES, (short) alpha0);
+        ShortVector v1 = ShortVector.broadcast(SHORT_SPECIES, (short) alpha1);
+        int j = 0;
+        for (; j < bound; j += step) {
+            ShortVector product = ((ShortVector) ByteVector.fromArray(BYTE_SPECIES, a, a0 + j)
+                    .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0)).mul(v0)
+                    .add(((ShortVector) ByteVector.fromArray(BYTE_SPECIES, a, a1 + j)
+                            .convertShape(VectorOperators.B2S, SHORT_SPECIES, 0)).mul(v1));
+            IntVector.fromArray(INT_SPECIES, y, yOffset + j)
+                    .add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 0))
+                    .intoArray(y, yOffset + j);
+            IntVector.fromArray(INT_SPECIES, y, yOffset + j + intLanes)
+                    .add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 1))
+                    .intoArray(y, yOffset + j + intLanes);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += alpha0 * a[a0 + j] + alpha1 * a[a1 + j];
+        }
+    }
+
+    static void sigmoid(double[] x, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        int i = from;
+        for (; i < bound; i += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            one.div(v.neg().lanewise(VectorOperators.EXP).add(one)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = 1.0 / (1.0 + Math.exp(-x[i]));
+        }
+    }
+
+    static void sigmoidDerivative(double[] x, double[] y, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        int i = from;
+        for (; i < bound; i += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            v.mul(one.sub(v)).mul(DoubleVector.fromArray(SPECIES, y, i)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] * (1.0 - x[i]) * y[i];
+        }
+    }
+
+    static void relu(double[] x, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += LANES) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            v.max(0.0).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : x[i];
+        }
+    }
+
+    static void reluDerivative(double[] x, double[] y, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (; i < bound; i += LANES) {
+            VectorMask<Double> active = DoubleVector.fromArray(SPECIES, x, i).compare(VectorOperators.GT, 0.0);
+            zero.blend(DoubleVector.fromArray(SPECIES, y, i), active).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : y[i];
+        }
+    }
+
+    static double expShifted(double[] x, double shift, double[] out, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (; i < bound; i += LANES) {
+            DoubleVector e = DoubleVector.fromArray(SPECIES, x, i).sub(shift).lanewise(VectorOperators.EXP);
+            e.intoArray(out, i);
+            sum = sum.add(e);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            out[i] = Math.exp(x[i] - shift);
+            result += out[i];
+        }
+        return result;
+    }
+
+    //Ядра для пакета во float: значения, ошибки, веса и градиенты - float, FMA по FLOAT_LANES элементов
+
+    static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int bound = FLOAT_SPECIES.loopBound(length);
+        FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int j = 0;
+        for (; j < bound; j += FLOAT_LANES) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + j);
+            FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + j);
+            vx.fma(va, vy).intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += alpha * x[xOffset + j];
+        }
+    }
+
+    static void axpy4(float x0, float x1, float x2, float x3, float[] a, int a0, int a1, int a2, int a3,
+                      float[] y, int yOffset, int length) {
+        int bound = FLOAT_SPECIES.loopBound(length);
+        FloatVector v0 = FloatVector.broadcast(FLOAT_SPECIES, x0);
+        FloatVector v1 = FloatVector.broadcast(FLOAT_SPECIES, x1);
+        FloatVector v2 = FloatVector.broadcast(FLOAT_SPECIES, x2);
+        FloatVector v3 = FloatVector.broadcast(FLOAT_SPECIES, x3);
+        int j = 0;
+        for (; j < bound; j += FLOAT_LANES) {
+            FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + j);
+            vy = FloatVector.fromArray(FLOAT_SPECIES, a, a0 + j).fma(v0, vy);
+            vy = FloatVector.fromArray(FLOAT_SPECIES, a, a1 + j).fma(v1, vy);
+            vy = FloatVector.fromArray(FLOAT_SPECIES, a, a2 + j).fma(v2, vy);
+            vy = FloatVector.fromArray(FLOAT_SPECIES, a, a3 + j).fma(v3, vy);
+            vy.intoArray(y, yOffset + j);
+        }
+        for (; j < length; j++) {
+            y[yOffset + j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+    }
+
+    static void dot4(float[] x, int xOffset, float[] a, int a0, int a1, int a2, int a3,
+                     float[] out, int outOffset, int length) {
+        int bound = FLOAT_SPECIES.loopBound(length);
+        FloatVector sum0 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum2 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum3 = FloatVector.zero(FLOAT_SPECIES);
+        int j = 0;
+        for (; j < bound; j += FLOAT_LANES) {
+            FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + j);
+            sum0 = v.fma(FloatVector.fromArray(FLOAT_SPECIES, a, a0 + j), sum0);
+            sum1 = v.fma(FloatVector.fromArray(FLOAT_SPECIES, a, a1 + j), sum1);
+            sum2 = v.fma(FloatVector.fromArray(FLOAT_SPECIES, a, a2 + j), sum2);
+            sum3 = v.fma(FloatVector.fromArray(FLOAT_SPECIES, a, a3 + j), sum3);
+        }
+        float s0 = sum0.reduceLanes(VectorOperators.ADD);
+        float s1 = sum1.reduceLanes(VectorOperators.ADD);
+        float s2 = sum2.reduceLanes(VectorOperators.ADD);
+        float s3 = sum3.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            float v = x[xOffset + j];
+            s0 += v * a[a0 + j];
+            s1 += v * a[a1 + j];
+            s2 += v * a[a2 + j];
+            s3 += v * a[a3 + j];
+        }
+        out[outOffset] += s0;
+        out[outOffset + 1] += s1;
+        out[outOffset + 2] += s2;
+        out[outOffset + 3] += s3;
+    }
+
+    static float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int bound = FLOAT_SPECIES.loopBound(length);
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int j = 0;
+        for (; j < bound; j += FLOAT_LANES) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + j);
+            sum = vx.fma(FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + j), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            result += x[xOffset + j] * y[yOffset + j];
+        }
+        return result;
+    }
+
+    static void sigmoid(float[] x, float[] out, int from, int to) {
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        FloatVector one = FloatVector.broadcast(FLOAT_SPECIES, 1f);
+        int i = from;
+        for (; i < bound; i += FLOAT_LANES) {
+            FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, x, i);
+            one.div(v.neg().lanewise(VectorOperators.EXP).add(one)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = (float) (1.0 / (1.0 + Math.exp(-x[i])));
+        }
+    }
+
+    static void sigmoidDerivative(float[] x, float[] y, float[] out, int from, int to) {
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        FloatVector one = FloatVector.broadcast(FLOAT_SPECIES, 1f);
+        int i = from;
+        for (; i < bound; i += FLOAT_LANES) {
+            FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, x, i);
+            v.mul(one.sub(v)).mul(FloatVector.fromArray(FLOAT_SPECIES, y, i)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] * (1f - x[i]) * y[i];
+        }
+    }
+
+    static void relu(float[] x, float[] out, int from, int to) {
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += FLOAT_LANES) {
+            FloatVector.fromArray(FLOAT_SPECIES, x, i).max(0f).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : x[i];
+        }
+    }
+
+    static void reluDerivative(float[] x, float[] y, float[] out, int from, int to) {
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        FloatVector zero = FloatVector.zero(FLOAT_SPECIES);
+        int i = from;
+        for (; i < bound; i += FLOAT_LANES) {
+            VectorMask<Float> active = FloatVector.fromArray(FLOAT_SPECIES, x, i).compare(VectorOperators.GT, 0f);
+            zero.blend(FloatVector.fromArray(FLOAT_SPECIES, y, i), active).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = x[i] <= 0 ? 0 : y[i];
+        }
+    }
+
+    static float expShifted(float[] x, float shift, float[] out, int from, int to) {
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int i = from;
+        for (; i < bound; i += FLOAT_LANES) {
+            FloatVector e = FloatVector.fromArray(FLOAT_SPECIES, x, i).sub(shift).lanewise(VectorOperators.EXP);
+            e.intoArray(out, i);
+            sum = sum.add(e);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            out[i] = (float) Math.exp(x[i] - shift);
+            result += out[i];
+        }
+        return result;
+    }
+}
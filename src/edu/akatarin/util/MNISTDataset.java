@@ -0,0 +1,252 @@
+package edu.akatarin.util;
+
+import edu.akatarin.Number;
+import edu.akatarin.SampleSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index-based read-only view of a decoded MNIST data set, backed by a
+ * memory-mapped cache file written by {@link MNISTLoader#openDataset(String)}.
+ * <p>
+ * Samples are read straight from the mapping, so the data set doesn't have
+ * to fit in the heap: pages are loaded by the OS as they are touched. The
+ * images are mapped in chunks of whole samples, which lifts the 2 GB limit of
+ * a single mapping. All methods are safe to call from several threads.
+ * Labels are unsigned bytes, so the cache also holds EMNIST and QMNIST style
+ * sets with up to 256 classes.
+ * As a {@link SampleSource} the data set can be passed directly to
+ * {@link edu.akatarin.BatchPipeline} and {@link edu.akatarin.Evaluator},
+ * which read it sample by sample into their batch buffers.
+ * <p>
+ * Cache file layout (little-endian):
+ * <pre>
+ * int magic "MNSC"
+ * int version
+ * int sample count
+ * int rows
+ * int cols
+ * int class count, the largest label + 1
+ * labels, one unsigned byte per sample, at {@link #LABELS_OFFSET}
+ * images, rows * cols unsigned bytes per sample, 64-byte aligned
+ * </pre>
+ */
+public final class MNISTDataset implements SampleSource {
+
+    static final int MAGIC = 0x43534E4D;
+    static final int VERSION = 2;
+    static final int LABELS_OFFSET = 64;
+    private static final int ALIGNMENT = 64;
+    /**
+     * Upper bound of a single image mapping.
+     */
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final int size;
+    private final int rows;
+    private final int cols;
+    private final int pixelCount;
+    private final int classCount;
+    private final MappedByteBuffer labels;
+    private final MappedByteBuffer[] imageChunks;
+    private final int samplesPerChunk;
+
+    private MNISTDataset(int size, int rows, int cols, int classCount, MappedByteBuffer labels,
+                         MappedByteBuffer[] imageChunks, int samplesPerChunk) {
+        this.size = size;
+        this.rows = rows;
+        this.cols = cols;
+        this.pixelCount = rows * cols;
+        this.classCount = classCount;
+        this.labels = labels;
+        this.imageChunks = imageChunks;
+        this.samplesPerChunk = samplesPerChunk;
+    }
+
+    /**
+     * Offset of the image block in a cache file.
+     *
+     * @param size sample count
+     * @return offset in bytes
+     */
+    static long imagesOffset(int size) {
+        return (LABELS_OFFSET + (long) size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Maps a cache file.
+     *
+     * @param cacheFile file written by MNISTLoader
+     * @return data set view
+     * @throws IOException if the file can't be read or is malformed
+     */
+    static MNISTDataset map(Path cacheFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < LABELS_OFFSET) {
+                throw new IOException(cacheFile + " is not an MNIST cache file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, LABELS_OFFSET)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(cacheFile + " is not an MNIST cache file");
+            }
+            int size = header.getInt();
+            int rows = header.getInt();
+            int cols = header.getInt();
+            int classCount = header.getInt();
+            long pixelCount = (long) rows * cols;
+            if (size <= 0 || rows <= 0 || cols <= 0 || classCount <= 0 || classCount > 256
+                    || pixelCount > MAX_CHUNK_BYTES || fileSize != imagesOffset(size) + size * pixelCount) {
+                throw new IOException("Corrupted MNIST cache file " + cacheFile);
+            }
+
+            MappedByteBuffer labels = channel.map(FileChannel.MapMode.READ_ONLY, LABELS_OFFSET, size);
+            for (int i = 0; i < size; i++) {
+                if ((labels.get(i) & 0xFF) >= classCount) {
+                    throw new IOException("Label " + (labels.get(i) & 0xFF) + " at " + i + " exceeds class count "
+                            + classCount + " in " + cacheFile);
+                }
+            }
+            int samplesPerChunk = (int) Math.min(size, MAX_CHUNK_BYTES / pixelCount);
+            MappedByteBuffer[] imageChunks = new MappedByteBuffer[(size + samplesPerChunk - 1) / samplesPerChunk];
+            for (int c = 0; c < imageChunks.length; c++) {
+                long first = (long) c * samplesPerChunk;
+                long count = Math.min(samplesPerChunk, size - first);
+                imageChunks[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        imagesOffset(size) + first * pixelCount, count * pixelCount);
+            }
+            return new MNISTDataset(size, rows, cols, classCount, labels, imageChunks, samplesPerChunk);
+        }
+    }
+
+    /**
+     * Gets the number of samples.
+     *
+     * @return sample count
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the image height.
+     *
+     * @return rows per image
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the image width.
+     *
+     * @return columns per image
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Gets the number of pixels per image.
+     *
+     * @return rows * cols
+     */
+    @Override
+    public int getPixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * Gets the number of classes, which is the largest label in the data set
+     * plus one: 10 for MNIST digits, up to 62 for EMNIST splits.
+     *
+     * @return class count
+     */
+    @Override
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Gets the class of a sample, e.g. the digit it shows.
+     *
+     * @param index sample index
+     * @return label from 0 to {@link #getClassCount()} - 1
+     */
+    @Override
+    public int getLabel(int index) {
+        return labels.get(checkIndex(index)) & 0xFF;
+    }
+
+    /**
+     * Writes the pixels of a sample, scaled to [0, 1], into a buffer.
+     *
+     * @param index sample index
+     * @param out buffer of at least {@link #getPixelCount()} elements
+     * @param offset first element of out to write
+     */
+    @Override
+    public void getPixels(int index, double[] out, int offset) {
+        checkIndex(index);
+        MappedByteBuffer chunk = imageChunks[index / samplesPerChunk];
+        int from = (index % samplesPerChunk) * pixelCount;
+        for (int j = 0; j < pixelCount; j++) {
+            out[offset + j] = Number.pixelValue(chunk.get(from + j));
+        }
+    }
+
+    /**
+     * Reads a sample into a new {@link Number}.
+     *
+     * @param index sample index
+     * @return sample with its own pixel array
+     */
+    public Number getNumber(int index) {
+        double[] pixels = new double[pixelCount];
+        getPixels(index, pixels, 0);
+        return new Number(pixels, getLabel(index));
+    }
+
+    /**
+     * Copies all images into one heap block and returns the samples as
+     * compact {@link Number}s sharing it: one byte per pixel instead of a
+     * double. Use the data set itself as a {@link SampleSource} when it
+     * doesn't fit in the heap.
+     *
+     * @return samples in data set order
+     * @throws IllegalStateException if the images don't fit in one array
+     */
+    public List<Number> toCompactNumbers() {
+        long total = (long) size * pixelCount;
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Data set of " + total + " bytes doesn't fit in one array, use getPixels");
+        }
+        byte[] block = new byte[(int) total];
+        for (int c = 0; c < imageChunks.length; c++) {
+            MappedByteBuffer chunk = imageChunks[c];
+            chunk.get(0, block, c * samplesPerChunk * pixelCount, chunk.capacity());
+        }
+        List<Number> numbers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            numbers.add(new Number(block, i * pixelCount, pixelCount, getLabel(i)));
+        }
+        return numbers;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Sample " + index + " out of " + size);
+        }
+        return index;
+    }
+}
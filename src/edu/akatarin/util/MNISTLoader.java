@@ -2,83 +2,256 @@ package edu.akatarin.util;
 
 import edu.akatarin.Number;
 
-import java.io.FileInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.zip.GZIPInputStream;
 
 /**
  * Loads MNIST data sets. Loading works according to specified standards at
  * http://yann.lecun.com/exdb/mnist/.
- *
+ * <p>
+ * On first use the gzipped IDX files are decoded into an uncompressed cache
+ * file next to them (e.g. "data/t10k.cache"), which later runs memory-map
+ * instead of inflating again. The cache is rebuilt when it is older than
+ * the IDX files. Decoding streams the images in large chunks and reads the
+ * label file concurrently, so decoding doesn't need the data set in the heap.
+ * To train on data sets larger than the heap, pass the view returned by
+ * {@link #openDataset(String)} to {@link edu.akatarin.BatchPipeline} and
+ * {@link edu.akatarin.Evaluator}; {@link #importData(String)} copies all
+ * images into one heap block.
  */
 public class MNISTLoader {
 
+    private static final int IMAGES_MAGIC = 2051;
+    private static final int LABELS_MAGIC = 2049;
+    private static final int INFLATE_BUFFER_SIZE = 1 << 16;
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
     /**
-     * Tries to read MNIST data from some file.
+     * Tries to read MNIST data from some file. Samples are compact: all
+     * images share one byte block.
      *
      * @param filePrefix filename e.g. "train-images-idx3-ubyte.gz"
-     * @return imported data
+     * @return imported data, or null if the files can't be read or are
+     * malformed
      */
     public static List<Number> importData(String filePrefix) {
-        List<Number> numbers = null;
-        String imgFileName = filePrefix + "-images-idx3-ubyte.gz";
-        String lblFileName = filePrefix + "-labels-idx1-ubyte.gz";
-        byte[] buffer = new byte[4];
+        System.out.println("---Importing MNIST data---");
+        MNISTDataset dataset = openDataset(filePrefix);
+        if (dataset == null) {
+            return null;
+        }
+        List<Number> numbers = dataset.toCompactNumbers();
+        System.out.println("---Finished---");
+        return numbers;
+    }
+
+    /**
+     * Opens an MNIST data set as an index-based view over its memory-mapped
+     * cache file, decoding the IDX files into the cache first if needed.
+     *
+     * @param filePrefix data set prefix e.g. "data/train"
+     * @return data set view, or null if the files can't be read or are
+     * malformed
+     */
+    public static MNISTDataset openDataset(String filePrefix) {
+        Path images = Paths.get(filePrefix + "-images-idx3-ubyte.gz");
+        Path labels = Paths.get(filePrefix + "-labels-idx1-ubyte.gz");
+        Path cache = Paths.get(filePrefix + ".cache");
         try {
-            System.out.println("---Importing MNIST data---");
-            GZIPInputStream images = new GZIPInputStream(new FileInputStream(imgFileName));
-            GZIPInputStream labels = new GZIPInputStream(new FileInputStream(lblFileName));
-
-            images.read(buffer);
-            int imagesMagicNum = bytesToInt(buffer);
-            labels.read(buffer);
-            int labelsMagicNum = bytesToInt(buffer);
-            if (imagesMagicNum == 2051 || labelsMagicNum == 2049) {
-
-                images.read(buffer);
-                int itemCount = bytesToInt(buffer);
-                labels.read(buffer);
-                int labelCount = bytesToInt(buffer);
-
-                if (itemCount == labelCount) {
-                    images.read(buffer);
-                    int rowCount = bytesToInt(buffer);
-                    images.read(buffer);
-                    int colCount = bytesToInt(buffer);
-
-                    numbers = new ArrayList<>(itemCount);
-
-                    int pixelCount = rowCount * colCount;
-                    for (int i = 0; i < itemCount; i++) {
-                        double[] image = new double[pixelCount];
-                        double[] labelAsArray = new double[10];
-                        int label = labels.read();
-                        labelAsArray[label] = 1.0;
-                        for (int j = 0; j < pixelCount; j++) {
-                            image[j] = images.read() / 255.0;
-                        }
-                        numbers.add(new Number(image, label));
-                    }
+            if (isCacheValid(cache, images, labels)) {
+                try {
+                    return MNISTDataset.map(cache);
+                } catch (IOException ex) {
+                    System.err.println(ex.getMessage() + ", rebuilding");
                 }
             }
-            System.out.println("---Finished---");
+            writeCache(images, labels, cache);
+            return MNISTDataset.map(cache);
         } catch (IOException ex) {
             System.err.println("Error while reading MNIST dataset");
             ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean isCacheValid(Path cache, Path images, Path labels) throws IOException {
+        if (!Files.exists(cache)) {
+            return false;
+        }
+        // without the source files the existing cache is used as is
+        if (!Files.exists(images) || !Files.exists(labels)) {
+            return true;
+        }
+        return Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(images)) >= 0
+                && Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(labels)) >= 0;
+    }
+
+    /**
+     * Decodes the IDX files into a cache file. The file is written under a
+     * temporary name and atomically moved into place when complete, so an
+     * interrupted run never leaves a truncated cache behind and processes
+     * that still map the old cache keep reading it unchanged.
+     */
+    private static void writeCache(Path images, Path labels, Path cache) throws IOException {
+        CompletableFuture<IdxFile> labelsFuture = CompletableFuture.supplyAsync(() -> {
+            try {
+                return IdxFile.read(labels, LABELS_MAGIC, 1);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        Path temp = Paths.get(cache + ".tmp");
+        try (DataInputStream in = openIdx(images);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int[] dimensions = readHeader(in, images, IMAGES_MAGIC, 3);
+            int itemCount = dimensions[0];
+            long imageBytes = (long) itemCount * dimensions[1] * dimensions[2];
+
+            // images are copied in chunks and never held in memory as a whole
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            long position = MNISTDataset.imagesOffset(itemCount);
+            for (long copied = 0; copied < imageBytes; ) {
+                int length = (int) Math.min(chunk.length, imageBytes - copied);
+                in.readFully(chunk, 0, length);
+                writeFully(out, ByteBuffer.wrap(chunk, 0, length), position + copied);
+                copied += length;
+            }
+            checkEnd(in, images);
+
+            IdxFile labelFile = joinLabels(labelsFuture);
+            if (itemCount != labelFile.dimensions[0]) {
+                throw new IOException("Image count " + itemCount + " doesn't match label count " + labelFile.dimensions[0]);
+            }
+            // labels are unsigned bytes; the class count covers EMNIST splits with more than 10 classes
+            int maxLabel = 0;
+            for (int i = 0; i < itemCount; i++) {
+                maxLabel = Math.max(maxLabel, labelFile.data[i] & 0xFF);
+            }
+            ByteBuffer header = ByteBuffer.allocate(MNISTDataset.LABELS_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MNISTDataset.MAGIC).putInt(MNISTDataset.VERSION)
+                    .putInt(itemCount).putInt(dimensions[1]).putInt(dimensions[2]).putInt(maxLabel + 1);
+            header.clear();
+            writeFully(out, header, 0);
+            writeFully(out, ByteBuffer.wrap(labelFile.data), MNISTDataset.LABELS_OFFSET);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        Files.move(temp, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static IdxFile joinLabels(CompletableFuture<IdxFile> labelsFuture) throws IOException {
+        try {
+            return labelsFuture.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static DataInputStream openIdx(Path fileName) throws IOException {
+        InputStream in = Files.newInputStream(fileName);
+        try {
+            return new DataInputStream(new GZIPInputStream(in, INFLATE_BUFFER_SIZE));
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
         }
-        return numbers;
     }
 
     /**
-     * Converts 4 bytes to 32 bit integer.
+     * Reads an IDX header, checking the magic number and dimensions.
      *
-     * @param bytes byte array
-     * @return integer value representation
+     * @param in stream positioned at the start of the file
+     * @param fileName file name for error messages
+     * @param magic expected magic number
+     * @param dimensionCount expected number of dimensions
+     * @return dimensions
+     * @throws IOException if the header can't be read or is malformed
      */
-    private static int bytesToInt(byte[] bytes) {
-        return ((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF));
+    private static int[] readHeader(DataInputStream in, Path fileName, int magic, int dimensionCount) throws IOException {
+        int actualMagic = in.readInt();
+        if (actualMagic != magic) {
+            throw new IOException("Wrong magic number " + actualMagic + " in " + fileName + ", expected " + magic);
+        }
+        int[] dimensions = new int[dimensionCount];
+        for (int i = 0; i < dimensionCount; i++) {
+            dimensions[i] = in.readInt();
+            if (dimensions[i] <= 0) {
+                throw new IOException("Invalid dimension " + dimensions[i] + " in " + fileName);
+            }
+        }
+        return dimensions;
     }
 
-}
\ No newline at end of file
+    private static void checkEnd(DataInputStream in, Path fileName) throws IOException {
+        if (in.read() != -1) {
+            throw new IOException("Unexpected data after the declared size in " + fileName);
+        }
+    }
+
+    /**
+     * Header and unsigned byte payload of a gzipped IDX file small enough to
+     * be held in memory.
+     */
+    private static final class IdxFile {
+
+        private final int[] dimensions;
+        private final byte[] data;
+
+        private IdxFile(int[] dimensions, byte[] data) {
+            this.dimensions = dimensions;
+            this.data = data;
+        }
+
+        /**
+         * Reads the whole file, checking the magic number and that the
+         * payload has exactly the size declared by the header.
+         *
+         * @param fileName gzipped IDX file
+         * @param magic expected magic number
+         * @param dimensionCount expected number of dimensions
+         * @return decoded file
+         * @throws IOException if the file can't be read or is malformed
+         */
+        private static IdxFile read(Path fileName, int magic, int dimensionCount) throws IOException {
+            try (DataInputStream in = openIdx(fileName)) {
+                int[] dimensions = readHeader(in, fileName, magic, dimensionCount);
+                long size = 1;
+                for (int dimension : dimensions) {
+                    size *= dimension;
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(fileName + " is too large: " + size + " bytes");
+                }
+                byte[] data = new byte[(int) size];
+                in.readFully(data);
+                checkEnd(in, fileName);
+                return new IdxFile(dimensions, data);
+            }
+        }
+    }
+}
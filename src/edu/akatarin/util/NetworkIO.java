@@ -0,0 +1,330 @@
+package edu.akatarin.util;
+
+import edu.akatarin.Activation;
+import edu.akatarin.CostFunction;
+import edu.akatarin.Initializer;
+import edu.akatarin.NeuralNetwork;
+import edu.akatarin.NeuralNetworkBuilder;
+import edu.akatarin.NeuronLayer;
+import edu.akatarin.Precision;
+import edu.akatarin.inference.InferenceLayer;
+import edu.akatarin.inference.InferenceNetwork;
+import edu.akatarin.inference.MappedLayer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and loads neural networks in a versioned little-endian binary format.
+ * <p>
+ * The file starts with a header describing the topology:
+ * <pre>
+ * int    magic "NNET"
+ * int    version
+ * int    precision (0 - DOUBLE, 1 - FLOAT)
+ * int    layer count
+ * string cost function name
+ * for each layer:
+ *   int    size
+ *   int    next size
+ *   double L2 regularization
+ *   long   offset of the bias block
+ *   long   offset of the weight block
+ *   string activation name
+ * </pre>
+ * Strings are stored as a short byte length followed by UTF-8 bytes. The header
+ * is followed by the bias and weight blocks of every layer, each starting at a
+ * multiple of {@link #ALIGNMENT} bytes. Biases are doubles, weights are stored
+ * row-major as doubles or floats depending on the precision of the network.
+ * <p>
+ * {@link #loadNetwork(String)} reads the file through a channel and copies
+ * every block into the arrays of a trainable network. The file is closed and
+ * not mapped afterwards, so it can be overwritten right away.
+ * {@link #mapNetwork(String)} maps the file read-only and serves inference
+ * straight from the mapping without copying the weights, so several JVMs
+ * serving the same model share page-cache pages. The mapping lives until the
+ * returned network is garbage collected.
+ * <p>
+ * {@link #saveNetwork(String, NeuralNetwork)} never rewrites an existing file
+ * in place: the network is written under a temporary name and then atomically
+ * renamed over the target. Processes that still map the old file keep reading
+ * the old, unchanged weights until they map the file again, instead of seeing
+ * them change mid-inference or crashing on a truncated mapping. On Windows a
+ * file that is mapped can't be replaced, so saving over it fails while such a
+ * network is in use.
+ */
+public class NetworkIO {
+
+    private static final int MAGIC = 0x54454E4E;
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 64;
+
+    private NetworkIO() {
+    }
+
+    /**
+     * Writes the network topology, activations, biases and weights to a file.
+     * The file is written as {@code fileName + ".tmp"} and moved over
+     * {@code fileName} when complete; the temporary file is deleted if
+     * writing fails.
+     *
+     * @param fileName file to write, e.g. "data/network.dat"
+     * @param network network to save
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public static void saveNetwork(String fileName, NeuralNetwork network) {
+        NeuronLayer[] layers = network.getLayers();
+        Precision precision = layers[0].getPrecision();
+        int weightBytes = precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+        byte[] costName = network.getCostFunction().getName().getBytes(StandardCharsets.UTF_8);
+        byte[][] activationNames = new byte[layers.length][];
+        long headerSize = 4 * Integer.BYTES + Short.BYTES + costName.length;
+        for (int k = 0; k < layers.length; k++) {
+            activationNames[k] = layers[k].getActivation().getName().getBytes(StandardCharsets.UTF_8);
+            headerSize += 2 * Integer.BYTES + Double.BYTES + 2 * Long.BYTES + Short.BYTES + activationNames[k].length;
+        }
+        long[] biasOffsets = new long[layers.length];
+        long[] weightOffsets = new long[layers.length];
+        long fileSize = align(headerSize);
+        for (int k = 0; k < layers.length; k++) {
+            biasOffsets[k] = fileSize;
+            fileSize = align(fileSize + (long) layers[k].getNextSize() * Double.BYTES);
+            weightOffsets[k] = fileSize;
+            fileSize = align(fileSize + (long) layers[k].getSize() * layers[k].getNextSize() * weightBytes);
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Network is too large to save: " + fileSize + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(precision.ordinal()).putInt(layers.length);
+        putString(buffer, costName);
+        for (int k = 0; k < layers.length; k++) {
+            NeuronLayer layer = layers[k];
+            buffer.putInt(layer.getSize()).putInt(layer.getNextSize()).putDouble(layer.getL2());
+            buffer.putLong(biasOffsets[k]).putLong(weightOffsets[k]);
+            putString(buffer, activationNames[k]);
+        }
+        for (int k = 0; k < layers.length; k++) {
+            NeuronLayer layer = layers[k];
+            buffer.position((int) biasOffsets[k]);
+            buffer.asDoubleBuffer().put(layer.getBiases());
+            buffer.position((int) weightOffsets[k]);
+            if (precision == Precision.FLOAT) {
+                buffer.asFloatBuffer().put(layer.getFloatWeights());
+            } else {
+                buffer.asDoubleBuffer().put(layer.getWeights());
+            }
+        }
+        buffer.clear();
+
+        Path target = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException("Can't save network to " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads a network saved by {@link #saveNetwork(String, NeuralNetwork)}.
+     *
+     * @param fileName file to read, e.g. "data/network.dat"
+     * @return loaded network with its cost function set
+     * @throws UncheckedIOException if the file can't be read or isn't a
+     * supported network file
+     */
+    public static NeuralNetwork loadNetwork(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large for a network file: " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + fileName);
+                }
+            }
+            buffer.flip();
+            return readNetwork(buffer, fileName);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new UncheckedIOException(new IOException("Corrupted network file " + fileName, e));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't load network from " + fileName, e);
+        }
+    }
+
+    /**
+     * Maps a network saved by {@link #saveNetwork(String, NeuralNetwork)} for
+     * inference only. Biases and weights are read from the mapped file on every
+     * prediction and are never copied to the heap.
+     *
+     * @param fileName file to map, e.g. "data/network.dat"
+     * @return inference network backed by the mapped file
+     * @throws UncheckedIOException if the file can't be read or isn't a
+     * supported network file
+     */
+    public static InferenceNetwork mapNetwork(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            Header header = readHeader(mapped, fileName);
+            int count = header.sizes.length - 1;
+            InferenceLayer[] layers = new InferenceLayer[count];
+            Activation[] activations = new Activation[count];
+            for (int k = 0; k < count; k++) {
+                layers[k] = new MappedLayer(mapped, header.sizes[k], header.nextSizes[k],
+                        (int) header.biasOffsets[k], (int) header.weightOffsets[k],
+                        header.precision == Precision.FLOAT);
+                activations[k] = header.activations[k + 1];
+            }
+            return new InferenceNetwork(layers, activations);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new UncheckedIOException(new IOException("Corrupted network file " + fileName, e));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't map network from " + fileName, e);
+        }
+    }
+
+    /**
+     * Topology and block offsets from the header of a network file.
+     */
+    private static final class Header {
+        Precision precision;
+        CostFunction costFunction;
+        int[] sizes;
+        int[] nextSizes;
+        double[] l2;
+        long[] biasOffsets;
+        long[] weightOffsets;
+        Activation[] activations;
+    }
+
+    private static Header readHeader(ByteBuffer buffer, String fileName) throws IOException {
+        if (buffer.remaining() < 4 * Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException(fileName + " is not a network file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported network file version " + version + " in " + fileName);
+        }
+        int precisionIndex = buffer.getInt();
+        int layerCount = buffer.getInt();
+        if (precisionIndex < 0 || precisionIndex >= Precision.values().length || layerCount < 2) {
+            throw new IOException("Corrupted header in " + fileName);
+        }
+        Header header = new Header();
+        header.precision = Precision.values()[precisionIndex];
+        int weightBytes = header.precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+        header.costFunction = CostFunction.valueOf(getString(buffer));
+        header.sizes = new int[layerCount];
+        header.nextSizes = new int[layerCount];
+        header.l2 = new double[layerCount];
+        header.biasOffsets = new long[layerCount];
+        header.weightOffsets = new long[layerCount];
+        header.activations = new Activation[layerCount];
+        for (int k = 0; k < layerCount; k++) {
+            int size = buffer.getInt();
+            int nextSize = buffer.getInt();
+            header.l2[k] = buffer.getDouble();
+            header.biasOffsets[k] = buffer.getLong();
+            header.weightOffsets[k] = buffer.getLong();
+            header.activations[k] = Activation.valueOf(getString(buffer));
+            if (size <= 0 || nextSize < 0
+                    || k > 0 && header.nextSizes[k - 1] != size
+                    || !fits(buffer, header.biasOffsets[k], (long) nextSize * Double.BYTES)
+                    || !fits(buffer, header.weightOffsets[k], (long) size * nextSize * weightBytes)) {
+                throw new IOException("Corrupted layer " + k + " in " + fileName);
+            }
+            header.sizes[k] = size;
+            header.nextSizes[k] = nextSize;
+        }
+        if (header.nextSizes[layerCount - 1] != 0) {
+            throw new IOException("Corrupted output layer in " + fileName);
+        }
+        return header;
+    }
+
+    private static NeuralNetwork readNetwork(ByteBuffer buffer, String fileName) throws IOException {
+        Header header = readHeader(buffer, fileName);
+        int layerCount = header.sizes.length;
+        NeuronLayer[] layers = new NeuronLayer[layerCount];
+        for (int k = 0; k < layerCount; k++) {
+            layers[k] = new NeuronLayer(header.sizes[k], header.nextSizes[k], header.activations[k], Initializer.MANUAL)
+                    .withL2Regularization(header.l2[k]);
+        }
+
+        NeuralNetworkBuilder builder = NeuralNetworkBuilder.neuralNetworkBuilder()
+                .withInputLayer(layers[0])
+                .withOutputLayer(layers[layerCount - 1])
+                .withPrecision(header.precision)
+                .withCostFunction(header.costFunction);
+        for (int k = 1; k < layerCount - 1; k++) {
+            builder.addHiddenLayer(layers[k]);
+        }
+        NeuralNetwork network = builder.build();
+
+        for (int k = 0; k < layerCount; k++) {
+            NeuronLayer layer = layers[k];
+            buffer.position((int) header.biasOffsets[k]);
+            buffer.asDoubleBuffer().get(layer.getBiases());
+            buffer.position((int) header.weightOffsets[k]);
+            if (header.precision == Precision.FLOAT) {
+                float[] weights = new float[layer.getSize() * layer.getNextSize()];
+                buffer.asFloatBuffer().get(weights);
+                layer.setWeights(weights);
+            } else {
+                double[] weights = new double[layer.getSize() * layer.getNextSize()];
+                buffer.asDoubleBuffer().get(weights);
+                layer.setWeights(weights);
+            }
+        }
+        return network;
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static boolean fits(ByteBuffer buffer, long offset, long length) {
+        return offset % ALIGNMENT == 0 && offset >= 0 && offset + length <= buffer.limit();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new IOException("Corrupted string in network file");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}